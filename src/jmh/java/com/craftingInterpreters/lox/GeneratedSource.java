@@ -0,0 +1,57 @@
+package com.craftingInterpreters.lox;
+// a large program made up from a fixed seed, so every run parses the same input. a mix of
+// declarations, functions and classes whose bodies are mostly long expressions, the way a big
+// real program stresses the front end. it only scans, parses and resolves, the globals it uses
+// are never defined
+
+import java.util.Random;
+
+final class GeneratedSource {
+    static final int STATEMENTS = 20_000;
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "<", "<=", ">", ">=", "==", "!=", "and", "or"};
+
+    private final Random random = new Random(42);
+    private final StringBuilder source = new StringBuilder();
+
+    private GeneratedSource(){}
+
+    static String generate(){
+        return new GeneratedSource().statements(STATEMENTS);
+    }
+
+    private String statements(int statements){
+        for(int i = 0; i < statements; i++){
+            switch (random.nextInt(4)){
+                case 0 -> source.append("var v").append(i).append(" = ").append(expression(5)).append(";\n");
+                case 1 -> source.append("print ").append(expression(5)).append(";\n");
+                case 2 -> source.append("fun f").append(i).append("(a, b) {\n  var c = ").append(expression(4))
+                        .append(";\n  if (").append(expression(2)).append(") return c; else return ")
+                        .append(expression(3)).append(";\n}\n");
+                default -> source.append("class C").append(i).append(" {\n  m(x) { this.y = ").append(expression(4))
+                        .append("; return this.y; }\n}\n");
+            }
+        }
+        return source.toString();
+    }
+
+    private String expression(int depth){
+        if(depth == 0 || random.nextInt(4) == 0) return operand(depth);
+        return switch (random.nextInt(6)){
+            case 0 -> "(" + expression(depth - 1) + ")";
+            case 1 -> (random.nextBoolean() ? "-" : "!") + operand(depth - 1);
+            default -> expression(depth - 1) + " " + OPERATORS[random.nextInt(OPERATORS.length)] + " " + expression(depth - 1);
+        };
+    }
+
+    private String operand(int depth){
+        return switch (random.nextInt(7)){
+            case 0 -> Integer.toString(random.nextInt(1000));
+            case 1 -> random.nextInt(1000) + "." + random.nextInt(100);
+            case 2 -> "\"s" + random.nextInt(100) + "\"";
+            case 3 -> depth > 0 ? "g" + random.nextInt(50) + "(" + expression(depth - 1) + ", x)" : "nil";
+            case 4 -> "o" + random.nextInt(50) + ".p" + random.nextInt(10) + ".q";
+            case 5 -> random.nextBoolean() ? "true" : "false";
+            default -> "x" + random.nextInt(50);
+        };
+    }
+}
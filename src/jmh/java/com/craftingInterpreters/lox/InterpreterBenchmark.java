@@ -0,0 +1,47 @@
+package com.craftingInterpreters.lox;
+// running a resolved workload on the tree walker, a fresh context and a fresh tree each time.
+// globals from the last run would carry over in the context, and the property and super caches
+// live on the tree's nodes, a tree run again would find them full of the last run's classes and
+// time the megamorphic path. the optimizer and memoization are left out, they would fold away
+// the work being measured
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "method_call", "properties", "instantiation", "closures", "strings", "equality"})
+    public String workload;
+
+    private byte[] source;
+    private List<Stmt> statements;
+    // memoization off as in the bench runner, so a workload routed through prepare still times its calls
+    private final LoxEngine engine = new LoxEngine().memoSize(0);
+
+    @Setup
+    public void setup(){
+        source = Workloads.source(workload);
+    }
+
+    // a workload takes milliseconds, far longer than what timing each invocation costs
+    @Setup(Level.Invocation)
+    public void resolve(){
+        statements = Workloads.resolve(source);
+    }
+
+    @Benchmark
+    public Object interpret(){
+        LoxContext context = engine.newContext();
+        Interpreter interpreter = context.interpreter;
+        interpreter.interpret(statements);
+        if(context.hadRuntimeError) throw new IllegalStateException("Workload failed");
+        return interpreter.globals.get(Workloads.RESULT);
+    }
+}
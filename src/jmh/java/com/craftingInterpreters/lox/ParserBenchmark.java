@@ -0,0 +1,31 @@
+package com.craftingInterpreters.lox;
+// scanning and parsing into a tree, the scanner runs as the parser asks for tokens so the two
+// can't be timed apart here. ScannerBenchmark shows what scanning alone costs
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"fib", "method_call", "properties", "instantiation", "closures", "strings", "equality", "generated"})
+    public String workload;
+
+    private byte[] source;
+
+    @Setup
+    public void setup(){
+        source = Workloads.source(workload);
+    }
+
+    @Benchmark
+    public List<Stmt> parse(){
+        return Workloads.parse(source);
+    }
+}
@@ -0,0 +1,32 @@
+package com.craftingInterpreters.lox;
+// resolving a tree parsed once up front. resolving again writes the same depths and slots, so
+// every run does the same work
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+    @Param({"fib", "method_call", "properties", "instantiation", "closures", "strings", "equality", "generated"})
+    public String workload;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup(){
+        statements = Workloads.parse(Workloads.source(workload));
+    }
+
+    @Benchmark
+    public List<Stmt> resolve(){
+        new Resolver(Workloads.CONTEXT).resolve(statements);
+        return statements;
+    }
+}
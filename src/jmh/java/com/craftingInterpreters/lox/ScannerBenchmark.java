@@ -0,0 +1,35 @@
+package com.craftingInterpreters.lox;
+// scanning alone, pulling every token of a workload through the ring buffer
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"fib", "method_call", "properties", "instantiation", "closures", "strings", "equality", "generated"})
+    public String workload;
+
+    private byte[] source;
+
+    @Setup
+    public void setup(){
+        source = Workloads.source(workload);
+    }
+
+    @Benchmark
+    public int scan(){
+        Scanner scanner = new Scanner(ByteBuffer.wrap(source), Workloads.CONTEXT);
+        TokenBuffer tokens = scanner.tokens;
+        do {
+            scanner.fill(tokens.count + TokenBuffer.CAPACITY);
+        } while (!tokens.is(tokens.count - 1, TokenType.EOF));
+        return tokens.count;
+    }
+}
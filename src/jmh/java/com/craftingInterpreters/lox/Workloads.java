@@ -0,0 +1,42 @@
+package com.craftingInterpreters.lox;
+// the lox programs the benchmarks run, kept as resources under workloads/. each leaves what it
+// computed in a global named result, so a benchmark can hand it to the blackhole and the work
+// can't be optimized away. generated is GeneratedSource's big program, for the front end only
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+final class Workloads {
+    static final Token RESULT = new Token(0, null, "result", TokenType.IDENTIFIER);
+    // front end errors are reported here, the workloads shouldn't have any
+    static final LoxContext CONTEXT = new LoxEngine().newContext();
+
+    private Workloads(){}
+
+    static byte[] source(String name){
+        if(name.equals("generated")) return GeneratedSource.generate().getBytes(StandardCharsets.UTF_8);
+        try(InputStream in = Workloads.class.getResourceAsStream("/workloads/" + name + ".lox")){
+            if(in == null) throw new IllegalArgumentException("No workload " + name);
+            return in.readAllBytes();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    static List<Stmt> parse(byte[] source){
+        List<Stmt> statements = new Parser(new Scanner(ByteBuffer.wrap(source), CONTEXT)).parse();
+        if(CONTEXT.hadError) throw new IllegalStateException("Workload doesn't parse");
+        return statements;
+    }
+
+    static List<Stmt> resolve(byte[] source){
+        List<Stmt> statements = parse(source);
+        new Resolver(CONTEXT).resolve(statements);
+        if(CONTEXT.hadError) throw new IllegalStateException("Workload doesn't resolve");
+        return statements;
+    }
+}
@@ -0,0 +1,69 @@
+package com.craftingInterpreters.lox;
+// keeps resolved programs on disk so rerunning an unchanged script skips the front end. an
+// entry is named after a hash of the script's bytes and the interpreter version, so editing
+// the script or upgrading the interpreter just misses. entries are mapped when read and
+// written to a temporary file first, so a reader never sees half of one
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+public class AstCache {
+    // goes up whenever the tree, what the resolver records or the file format changes
+    static final String VERSION = "jlox-ast-3";
+
+    private final Path directory;
+
+    AstCache(Path directory){
+        this.directory = directory;
+    }
+
+    // cache file for a script, named by the hash of its bytes and the version
+    Path entry(ByteBuffer source){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(digest.digest()) + ".loxc");
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // the resolved program, or null when there's no usable entry
+    List<Stmt> load(Path entry){
+        if(!Files.isRegularFile(entry)) return null;
+        try(FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)){
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AstReader(bytes).read(VERSION);
+        } catch (IOException | RuntimeException error) {
+            // a broken entry is the same as none, it gets written again
+            return null;
+        }
+    }
+
+    // failing to write is not an error, the next run just misses again
+    void store(Path entry, List<Stmt> statements){
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                Files.write(temporary, new AstWriter().write(statements, VERSION));
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException | RuntimeException ignored) {
+        }
+    }
+}
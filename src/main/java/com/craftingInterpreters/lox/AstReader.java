@@ -0,0 +1,246 @@
+package com.craftingInterpreters.lox;
+// reads back a program AstWriter wrote, resolver results included, so it can run without
+// going through the scanner, parser and resolver again. names are interned as their tokens
+// are rebuilt. anything that doesn't add up throws IllegalStateException
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private final List<String> strings = new ArrayList<>();
+    private final List<Stmt.Var> declarations = new ArrayList<>();
+    // function declarations in the order they were read, AstWriter numbers them the same
+    final List<Stmt.Function> functions = new ArrayList<>();
+
+    AstReader(ByteBuffer in){
+        this.in = in;
+    }
+
+    // null when the file was written for another version
+    List<Stmt> read(String version){
+        if(!header(AstWriter.MAGIC, version)) return null;
+        List<Stmt> statements = readStmts();
+        end();
+        return statements;
+    }
+
+    // false when the file was written for another version. a file of this version is checked
+    // against its CRC32 before anything else is read, so a damaged one throws instead of being
+    // read as some other program
+    boolean header(int magic, String version){
+        if(in.getInt() != magic) throw new IllegalStateException("Not a cached program");
+        if(!readString().equals(version)) return false;
+        int end = in.limit() - Integer.BYTES;
+        if(end < in.position()) throw new IllegalStateException("Truncated cached program");
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(0).limit(end));
+        if((int) crc.getValue() != in.getInt(end)) throw new IllegalStateException("Corrupt cached program");
+        in.limit(end);
+        return true;
+    }
+
+    void end(){
+        if(in.hasRemaining()) throw new IllegalStateException("Trailing bytes in cached program");
+    }
+
+    List<Stmt> readStmts(){
+        int size = readInt();
+        List<Stmt> statements = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    String readString(){
+        int index = readInt();
+        if(index >= 0) return strings.get(index);
+        byte[] utf8 = new byte[readInt()];
+        in.get(utf8);
+        String value = new String(utf8, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+
+    private Token readToken(){
+        int type = in.get();
+        if(type < 0) return null;
+        int line = readInt();
+        String lexeme = readString();
+        return new Token(line, TokenBuffer.literal(TYPES[type], lexeme), lexeme, TYPES[type]);
+    }
+
+    private List<Token> readTokens(){
+        int size = readInt();
+        List<Token> tokens = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            tokens.add(readToken());
+        }
+        return tokens;
+    }
+
+    Object readValue(){
+        return readValue(in.get());
+    }
+
+    // the value after its tag, for callers that read the tag to tell it from their own
+    Object readValue(byte tag){
+        return switch (tag){
+            case AstWriter.NIL -> null;
+            case AstWriter.FALSE -> false;
+            case AstWriter.TRUE -> true;
+            case AstWriter.NUMBER -> in.getDouble();
+            case AstWriter.INTEGER -> (double) readInt();
+            case AstWriter.STRING -> readString();
+            default -> throw new IllegalStateException("Bad literal in cached program");
+        };
+    }
+
+    // zigzag varint, see AstWriter
+    int readInt(){
+        int bits = 0;
+        for(int shift = 0; ; shift += 7){
+            byte b = in.get();
+            bits |= (b & 0x7F) << shift;
+            if(b >= 0) break;
+            if(shift > 28) throw new IllegalStateException("Bad number in cached program");
+        }
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    boolean readFlag(){
+        return in.get() != 0;
+    }
+
+    byte readByte(){
+        return in.get();
+    }
+
+    private Expr readExpr(){
+        byte tag = in.get();
+        switch (tag){
+            case AstWriter.NULL:
+                return null;
+            case AstWriter.ASSIGN: {
+                Expr.Assign assign = new Expr.Assign(readToken(), readExpr());
+                assign.depth = readInt();
+                assign.slot = readInt();
+                return assign;
+            }
+            case AstWriter.BINARY:
+                return new Expr.Binary(readExpr(), readToken(), readExpr());
+            case AstWriter.GROUPING:
+                return new Expr.Grouping(readExpr());
+            case AstWriter.LITERAL:
+                return new Expr.Literal(readValue());
+            case AstWriter.UNARY:
+                return new Expr.Unary(readToken(), readExpr());
+            case AstWriter.VAR_EXPR: {
+                Expr.Var var = new Expr.Var(readToken());
+                var.depth = readInt();
+                var.slot = readInt();
+                int declaration = readInt();
+                if(declaration >= 0) var.declaration = declarations.get(declaration);
+                return var;
+            }
+            case AstWriter.LOGICAL:
+                return new Expr.Logical(readExpr(), readToken(), readExpr());
+            case AstWriter.CALL: {
+                Expr callee = readExpr();
+                Token paren = readToken();
+                int size = readInt();
+                List<Expr> arguments = new ArrayList<>(size);
+                for(int i = 0; i < size; i++){
+                    arguments.add(readExpr());
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case AstWriter.GET:
+                return new Expr.GetExpression(readExpr(), readToken());
+            case AstWriter.SET:
+                return new Expr.SetExpression(readExpr(), readToken(), readExpr());
+            case AstWriter.SUPER: {
+                Expr.Super superExpr = new Expr.Super(readToken(), readToken());
+                superExpr.depth = readInt();
+                return superExpr;
+            }
+            case AstWriter.THIS: {
+                Expr.This thisExpr = new Expr.This(readToken());
+                thisExpr.depth = readInt();
+                return thisExpr;
+            }
+            default:
+                throw new IllegalStateException("Bad expression tag " + tag + " in cached program");
+        }
+    }
+
+    private Stmt readStmt(){
+        byte tag = in.get();
+        if(tag == AstWriter.NULL) return null;
+        Stmt stmt = readStmt(tag);
+        stmt.line = readInt();
+        return stmt;
+    }
+
+    private Stmt readStmt(byte tag){
+        switch (tag){
+            case AstWriter.EXPRESSION:
+                return new Stmt.Expression(readExpr());
+            case AstWriter.PRINT:
+                return new Stmt.Print(readExpr());
+            case AstWriter.VAR: {
+                Stmt.Var var = new Stmt.Var(readToken(), readExpr());
+                var.slot = readInt();
+                var.reassigned = readFlag();
+                declarations.add(var);
+                return var;
+            }
+            case AstWriter.BLOCK: {
+                Stmt.Block block = new Stmt.Block(readStmts());
+                block.frameSize = readInt();
+                return block;
+            }
+            case AstWriter.IF:
+                return new Stmt.If(readExpr(), readStmt(), readStmt());
+            case AstWriter.WHILE:
+                return new Stmt.While(readExpr(), readStmt());
+            case AstWriter.FUNCTION:
+                return readFunction();
+            case AstWriter.RETURN:
+                return new Stmt.ReturnStmt(readToken(), readExpr());
+            case AstWriter.CLASS: {
+                Token name = readToken();
+                Expr.Var superclass = (Expr.Var) readExpr();
+                int size = readInt();
+                List<Stmt.Function> methods = new ArrayList<>(size);
+                for(int i = 0; i < size; i++){
+                    if(in.get() != AstWriter.FUNCTION) throw new IllegalStateException("Bad method in cached program");
+                    Stmt.Function method = readFunction();
+                    method.line = readInt();
+                    methods.add(method);
+                }
+                Stmt.ClassStmt classStmt = new Stmt.ClassStmt(name, superclass, methods);
+                classStmt.slot = readInt();
+                return classStmt;
+            }
+            default:
+                throw new IllegalStateException("Bad statement tag " + tag + " in cached program");
+        }
+    }
+
+    // the FUNCTION tag has already been read
+    private Stmt.Function readFunction(){
+        Stmt.Function function = new Stmt.Function(readToken(), readTokens(), readStmts());
+        function.slot = readInt();
+        function.frameSize = readInt();
+        function.isMethod = readFlag();
+        functions.add(function);
+        return function;
+    }
+}
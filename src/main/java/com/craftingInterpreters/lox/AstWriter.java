@@ -0,0 +1,375 @@
+package com.craftingInterpreters.lox;
+// writes a resolved program out in the binary form AstReader reads back. every node is a tag
+// byte followed by its fields, children first in the order the constructor takes them, then
+// what the resolver worked out. ints are zigzag varints, so small slots, depths and lines take
+// a byte. each distinct string is written once and referred to by index after that. symbols
+// aren't written, they only mean something inside one process. a CRC32 of it all comes last
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4C4F5843;
+
+    // node tags, 0 stands for a missing node
+    static final byte NULL = 0;
+    static final byte ASSIGN = 1, BINARY = 2, GROUPING = 3, LITERAL = 4, UNARY = 5, VAR_EXPR = 6,
+            LOGICAL = 7, CALL = 8, GET = 9, SET = 10, SUPER = 11, THIS = 12;
+    static final byte EXPRESSION = 20, PRINT = 21, VAR = 22, BLOCK = 23, IF = 24, WHILE = 25,
+            FUNCTION = 26, RETURN = 27, CLASS = 28;
+    // literal value tags
+    static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4, INTEGER = 5;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<String, Integer> strings = new HashMap<>();
+    // var statements in the order they were written, for reads that point back at them
+    private final Map<Stmt.Var, Integer> declarations = new IdentityHashMap<>();
+    // function declarations numbered the same way, images refer to them by number
+    final Map<Stmt.Function, Integer> functions = new IdentityHashMap<>();
+
+    byte[] write(List<Stmt> statements, String version){
+        header(MAGIC, version);
+        writeList(statements);
+        return toBytes();
+    }
+
+    void header(int magic, String version){
+        try {
+            out.writeInt(magic);
+            writeString(version);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    byte[] toBytes(){
+        byte[] written = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(written);
+        return ByteBuffer.allocate(written.length + Integer.BYTES).put(written).putInt((int) crc.getValue()).array();
+    }
+
+    private void writeStmts(List<? extends Stmt> statements) throws IOException {
+        writeVarint(statements.size());
+        for(Stmt stmt: statements){
+            write(stmt);
+        }
+    }
+
+    // every statement is followed by its line
+    private void write(Stmt stmt){
+        if(stmt == null){
+            tag(NULL);
+            return;
+        }
+        stmt.accept(this);
+        integer(stmt.line);
+    }
+
+    private void write(Expr expr){
+        if(expr == null) tag(NULL);
+        else expr.accept(this);
+    }
+
+    // the visitor methods can't throw IOException, the byte array stream never does anyway
+    void tag(byte tag){
+        try {
+            out.writeByte(tag);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    void flag(boolean value){
+        tag(value ? (byte) 1 : (byte) 0);
+    }
+
+    void integer(int value){
+        try {
+            writeVarint(value);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    // seven bits a byte, low first, with the sign folded into the lowest bit
+    private void writeVarint(int value) throws IOException {
+        int bits = (value << 1) ^ (value >> 31);
+        while((bits & ~0x7F) != 0){
+            out.writeByte((bits & 0x7F) | 0x80);
+            bits >>>= 7;
+        }
+        out.writeByte(bits);
+    }
+
+    private void writeString(String value) throws IOException {
+        Integer index = strings.get(value);
+        if(index != null){
+            writeVarint(index);
+            return;
+        }
+        strings.put(value, strings.size());
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(-1);
+        writeVarint(utf8.length);
+        out.write(utf8);
+    }
+
+    private void writeToken(Token token){
+        try {
+            if(token == null){
+                out.writeByte(-1);
+                return;
+            }
+            out.writeByte(token.type().ordinal());
+            writeVarint(token.line());
+            writeString(token.lexeme());
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    private void writeTokens(List<Token> tokens){
+        integer(tokens.size());
+        for(Token token: tokens){
+            writeToken(token);
+        }
+    }
+
+    void string(String value){
+        try {
+            writeString(value);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    // nil, a boolean, a number or a string
+    void writeValue(Object value){
+        try {
+            if(value == null) out.writeByte(NIL);
+            else if(value instanceof Boolean bool) out.writeByte(bool ? TRUE : FALSE);
+            else if(value instanceof Double number && number == number.intValue() && !number.equals(-0.0)){
+                // whole numbers, most of them in practice, as a varint
+                out.writeByte(INTEGER);
+                writeVarint(number.intValue());
+            } else if(value instanceof Double number){
+                out.writeByte(NUMBER);
+                out.writeDouble(number);
+            } else {
+                out.writeByte(STRING);
+                writeString((String) value);
+            }
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    void writeList(List<? extends Stmt> statements){
+        try {
+            writeStmts(statements);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    // expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        writeToken(expr.name);
+        write(expr.value);
+        integer(expr.depth);
+        integer(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        write(expr.left);
+        writeToken(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        writeValue(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        writeToken(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        tag(VAR_EXPR);
+        writeToken(expr.name);
+        integer(expr.depth);
+        integer(expr.slot);
+        integer(expr.declaration == null ? -1 : declarations.get(expr.declaration));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        write(expr.left);
+        writeToken(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        write(expr.callee);
+        writeToken(expr.paren);
+        integer(expr.arguments.size());
+        for(Expr argument: expr.arguments){
+            write(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpressionExpr(Expr.GetExpression expr) {
+        tag(GET);
+        write(expr.object);
+        writeToken(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpressionExpr(Expr.SetExpression expr) {
+        tag(SET);
+        write(expr.object);
+        writeToken(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        tag(SUPER);
+        writeToken(expr.Keyword);
+        writeToken(expr.method);
+        integer(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        tag(THIS);
+        writeToken(expr.keyword);
+        integer(expr.depth);
+        return null;
+    }
+
+    // statements
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        writeToken(stmt.name);
+        write(stmt.initializer);
+        integer(stmt.slot);
+        flag(stmt.reassigned);
+        // numbered once written, the reader numbers it once read
+        declarations.put(stmt, declarations.size());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        writeList(stmt.statements);
+        integer(stmt.frameSize);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        write(stmt.condition);
+        write(stmt.thenStmt);
+        write(stmt.elseStmt);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        write(stmt.condition);
+        write(stmt.loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        writeToken(stmt.name);
+        writeTokens(stmt.params);
+        writeList(stmt.body);
+        integer(stmt.slot);
+        integer(stmt.frameSize);
+        flag(stmt.isMethod);
+        functions.put(stmt, functions.size());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+        tag(RETURN);
+        writeToken(stmt.keyword);
+        write(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmtStmt(Stmt.ClassStmt stmt) {
+        tag(CLASS);
+        writeToken(stmt.name);
+        write(stmt.superclass);
+        writeList(stmt.methods);
+        integer(stmt.slot);
+        return null;
+    }
+}
@@ -0,0 +1,154 @@
+package com.craftingInterpreters.lox;
+// runs every script in a benchmark directory in this process, start to finish the way runFile
+// does, minus the disk cache, with a fresh context each run. after warmup runs it times the
+// rest and reports median and p95 wall time and the bytes allocated per run as JSON. against a
+// saved baseline, a script whose median time or allocation grew past the threshold fails the run
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public class Bench {
+    record Result(String name, double medianMs, double p95Ms, long allocatedBytes){}
+
+    // one script per line in the JSON, which is what lets a baseline be read back this simply
+    private static final Pattern RESULT = Pattern.compile(
+            "\"name\": \"([^\"]*)\", \"median_ms\": ([0-9.]+), \"p95_ms\": ([0-9.]+), \"allocated_bytes\": ([0-9]+)");
+
+    private com.sun.management.ThreadMXBean threads;
+
+    Path directory = Path.of("benchmark");
+    int warmup = 3;
+    int runs = 10;
+    Path baseline;
+    Path saveBaseline;
+    // percent a median can grow over the baseline before it counts as a regression
+    double threshold = 10;
+
+    // exit status, 0 when every script ran and none regressed
+    int run() throws IOException {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<Path> scripts;
+        try(Stream<Path> files = Files.list(directory)){
+            scripts = files.filter(path -> path.toString().endsWith(".lox")).sorted().toList();
+        }
+        if(scripts.isEmpty()){
+            System.err.println("No .lox scripts in " + directory);
+            return 66;
+        }
+
+        List<Result> results = new ArrayList<>();
+        for(Path script: scripts){
+            Result result = measure(script);
+            if(result == null) return 70;
+            results.add(result);
+        }
+
+        String json = json(results);
+        System.out.print(json);
+        if(saveBaseline != null) Files.writeString(saveBaseline, json);
+        if(baseline != null) return compare(results, read(baseline)) ? 0 : 1;
+        return 0;
+    }
+
+    // null when the script has an error
+    private Result measure(Path script) throws IOException {
+        byte[] source = Files.readAllBytes(script);
+        String name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+        long[] times = new long[runs];
+        long[] allocated = new long[runs];
+
+        // what the scripts print would swamp the report
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        for(int i = -warmup; i < runs; i++){
+            Lox.reset(discard);
+            LoxContext context = Lox.context;
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            List<Stmt> statements = context.frontEnd(new Scanner(ByteBuffer.wrap(source), context));
+            if(statements != null) context.execute(statements);
+            long elapsed = System.nanoTime() - start;
+            if(context.hadError || context.hadRuntimeError){
+                System.err.println("Benchmark " + name + " failed.");
+                return null;
+            }
+            if(i < 0) continue;
+            times[i] = elapsed;
+            allocated[i] = threads.getCurrentThreadAllocatedBytes() - bytes;
+        }
+
+        Arrays.sort(times);
+        Arrays.sort(allocated);
+        return new Result(name, percentile(times, 50) / 1e6, percentile(times, 95) / 1e6, percentile(allocated, 50));
+    }
+
+    // nearest rank
+    private static long percentile(long[] sorted, int percent){
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    private String json(List<Result> results){
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"warmup\": ").append(warmup).append(",\n");
+        json.append("  \"runs\": ").append(runs).append(",\n");
+        // a baseline only compares with runs made the same way
+        json.append("  \"memo_size\": ").append(Lox.context.memoSize).append(",\n");
+        json.append("  \"scripts\": [\n");
+        for(int i = 0; i < results.size(); i++){
+            Result result = results.get(i);
+            json.append(String.format(Locale.ROOT, "    {\"name\": \"%s\", \"median_ms\": %.3f, \"p95_ms\": %.3f, \"allocated_bytes\": %d}",
+                    result.name(), result.medianMs(), result.p95Ms(), result.allocatedBytes()));
+            json.append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        json.append("  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static Map<String, Result> read(Path baseline) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        Matcher matcher = RESULT.matcher(Files.readString(baseline));
+        while(matcher.find()){
+            results.put(matcher.group(1), new Result(matcher.group(1), Double.parseDouble(matcher.group(2)),
+                    Double.parseDouble(matcher.group(3)), Long.parseLong(matcher.group(4))));
+        }
+        return results;
+    }
+
+    // reports every regression to stderr, false when there was one
+    private boolean compare(List<Result> results, Map<String, Result> baseline){
+        double limit = 1 + threshold / 100;
+        boolean passed = true;
+        for(Result result: results){
+            Result before = baseline.get(result.name());
+            if(before == null){
+                System.err.println(result.name() + ": not in the baseline");
+                continue;
+            }
+            if(result.medianMs() > before.medianMs() * limit){
+                System.err.printf(Locale.ROOT, "%s: median %.3f ms, was %.3f ms%n", result.name(), result.medianMs(), before.medianMs());
+                passed = false;
+            }
+            if(result.allocatedBytes() > before.allocatedBytes() * limit){
+                System.err.printf(Locale.ROOT, "%s: allocated %d bytes, was %d%n", result.name(), result.allocatedBytes(), before.allocatedBytes());
+                passed = false;
+            }
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,353 @@
+package com.craftingInterpreters.lox;
+// operator nodes for the closure backend that rewrite themselves to the operand types they have seen.
+// a node starts uninitialized, settles on doubles or strings after its first run and only ever
+// moves on to the generic version when a guard fails, so it can't flip back and forth
+
+abstract class BinaryNode implements ClosureCompiler.ExprNode {
+    enum Specialization{
+        UNINITIALIZED,
+        DOUBLE,
+        STRING,
+        GENERIC
+    }
+
+    final ClosureCompiler.ExprNode left;
+    final ClosureCompiler.ExprNode right;
+    final Token operator;
+    Specialization specialization = Specialization.UNINITIALIZED;
+
+    BinaryNode(ClosureCompiler.ExprNode left, Token operator, ClosureCompiler.ExprNode right){
+        this.left = left;
+        this.operator = operator;
+        this.right = right;
+    }
+
+    static ClosureCompiler.ExprNode create(ClosureCompiler.ExprNode left, Token operator, ClosureCompiler.ExprNode right){
+        // every operator gets a class of its own so HotSpot profiles its fast path separately.
+        // arithmetic stays unboxed through evalDouble and comparisons through evalBoolean,
+        // a value is only boxed by eval when it leaves for a variable, field or call
+        return switch (operator.type()){
+            case TokenType.PLUS -> new Add(left, operator, right);
+            case TokenType.MINUS -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    try {
+                        return evalDouble(runner, frame);
+                    } catch (UnexpectedResult e) {
+                        return e.result;
+                    }
+                }
+
+                @Override
+                public double evalDouble(Interpreter runner, Frame frame) throws UnexpectedResult{
+                    if(specialization != Specialization.DOUBLE) return expectDouble(evalGeneric(runner, frame));
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(left.eval(runner, frame), e.result)); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(e.result, r)); }
+                    return l - r;
+                }
+
+                Object doubles(double l, double r){ return l - r; }
+            };
+            case TokenType.STAR -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    try {
+                        return evalDouble(runner, frame);
+                    } catch (UnexpectedResult e) {
+                        return e.result;
+                    }
+                }
+
+                @Override
+                public double evalDouble(Interpreter runner, Frame frame) throws UnexpectedResult{
+                    if(specialization != Specialization.DOUBLE) return expectDouble(evalGeneric(runner, frame));
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(left.eval(runner, frame), e.result)); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(e.result, r)); }
+                    return l * r;
+                }
+
+                Object doubles(double l, double r){ return l * r; }
+            };
+            case TokenType.SLASH -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    try {
+                        return evalDouble(runner, frame);
+                    } catch (UnexpectedResult e) {
+                        return e.result;
+                    }
+                }
+
+                @Override
+                public double evalDouble(Interpreter runner, Frame frame) throws UnexpectedResult{
+                    if(specialization != Specialization.DOUBLE) return expectDouble(evalGeneric(runner, frame));
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(left.eval(runner, frame), e.result)); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(e.result, r)); }
+                    return l / r;
+                }
+
+                Object doubles(double l, double r){ return l / r; }
+            };
+            case TokenType.GREATER -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    return evalBoolean(runner, frame);
+                }
+
+                @Override
+                public boolean evalBoolean(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return (boolean) evalGeneric(runner, frame);
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(left.eval(runner, frame), e.result); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(e.result, r); }
+                    return l > r;
+                }
+
+                Object doubles(double l, double r){ return l > r; }
+            };
+            case TokenType.GREATER_EQUAL -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    return evalBoolean(runner, frame);
+                }
+
+                @Override
+                public boolean evalBoolean(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return (boolean) evalGeneric(runner, frame);
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(left.eval(runner, frame), e.result); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(e.result, r); }
+                    return l >= r;
+                }
+
+                Object doubles(double l, double r){ return l >= r; }
+            };
+            case TokenType.LESS -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    return evalBoolean(runner, frame);
+                }
+
+                @Override
+                public boolean evalBoolean(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return (boolean) evalGeneric(runner, frame);
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(left.eval(runner, frame), e.result); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(e.result, r); }
+                    return l < r;
+                }
+
+                Object doubles(double l, double r){ return l < r; }
+            };
+            case TokenType.LESS_EQUAL -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    return evalBoolean(runner, frame);
+                }
+
+                @Override
+                public boolean evalBoolean(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return (boolean) evalGeneric(runner, frame);
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(left.eval(runner, frame), e.result); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(e.result, r); }
+                    return l <= r;
+                }
+
+                Object doubles(double l, double r){ return l <= r; }
+            };
+            // same answers as Double.equals, which is what the tree walker compares with
+            case TokenType.BANG_EQUAL -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    return evalBoolean(runner, frame);
+                }
+
+                @Override
+                public boolean evalBoolean(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return (boolean) evalGeneric(runner, frame);
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(left.eval(runner, frame), e.result); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(e.result, r); }
+                    return Double.doubleToLongBits(l) != Double.doubleToLongBits(r);
+                }
+
+                Object doubles(double l, double r){ return Double.doubleToLongBits(l) != Double.doubleToLongBits(r); }
+
+                // any two values can be compared, numbers are only the fast path
+                @Override
+                Object generic(Object l, Object r){ return !Interpreter.isEqual(l, r); }
+            };
+            case TokenType.EQUAL_EQUAL -> new NumberNode(left, operator, right) {
+                @Override
+                public Object eval(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+                    return evalBoolean(runner, frame);
+                }
+
+                @Override
+                public boolean evalBoolean(Interpreter runner, Frame frame){
+                    if(specialization != Specialization.DOUBLE) return (boolean) evalGeneric(runner, frame);
+                    double r, l;
+                    try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(left.eval(runner, frame), e.result); }
+                    try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return (boolean) specialize(e.result, r); }
+                    return Double.doubleToLongBits(l) == Double.doubleToLongBits(r);
+                }
+
+                Object doubles(double l, double r){ return Double.doubleToLongBits(l) == Double.doubleToLongBits(r); }
+
+                @Override
+                Object generic(Object l, Object r){ return Interpreter.isEqual(l, r); }
+            };
+            default -> throw new IllegalStateException("Unknown operator " + operator.lexeme());
+        };
+    }
+
+    // both operands boxed, used before the node has specialized and after it went generic
+    final Object evalGeneric(Interpreter runner, Frame frame){
+        Object r = right.eval(runner, frame);
+        Object l = left.eval(runner, frame);
+        return specialize(l, r);
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResult{
+        if(value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
+    }
+
+    // slow path for the first run or a failed guard, picks the next specialization and runs the generic version
+    final Object specialize(Object l, Object r){
+        Specialization next = Specialization.GENERIC;
+        if(specialization == Specialization.UNINITIALIZED){
+            if(l instanceof Double && r instanceof Double) next = Specialization.DOUBLE;
+            else if(l instanceof String && r instanceof String && acceptsStrings()) next = Specialization.STRING;
+        }
+        if(specialization != Specialization.GENERIC) specialization = next;
+        return generic(l, r);
+    }
+
+    abstract Object doubles(double l, double r);
+
+    boolean acceptsStrings(){
+        return false;
+    }
+
+    abstract Object generic(Object l, Object r);
+
+    private static final class Add extends BinaryNode {
+        Add(ClosureCompiler.ExprNode left, Token operator, ClosureCompiler.ExprNode right){
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object eval(Interpreter runner, Frame frame){
+            Specialization current = specialization;
+            if(current == Specialization.DOUBLE){
+                try {
+                    return evalDouble(runner, frame);
+                } catch (UnexpectedResult e) {
+                    return e.result;
+                }
+            }
+            if(current != Specialization.STRING) return evalGeneric(runner, frame);
+            Object r = right.eval(runner, frame);
+            Object l = left.eval(runner, frame);
+            if(l instanceof String a && r instanceof String b) return a + b;
+            return specialize(l, r);
+        }
+
+        @Override
+        public double evalDouble(Interpreter runner, Frame frame) throws UnexpectedResult{
+            if(specialization != Specialization.DOUBLE) return expectDouble(eval(runner, frame));
+            double r, l;
+            try { r = right.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(left.eval(runner, frame), e.result)); }
+            try { l = left.evalDouble(runner, frame); } catch (UnexpectedResult e) { return expectDouble(specialize(e.result, r)); }
+            return l + r;
+        }
+
+        @Override
+        Object doubles(double l, double r){
+            return l + r;
+        }
+
+        @Override
+        boolean acceptsStrings(){
+            return true;
+        }
+
+        @Override
+        Object generic(Object l, Object r){
+            if (l instanceof String && r instanceof String) return (String)l + (String)r;
+            if (l instanceof Double && r instanceof Double) return (double)l + (double)r;
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings" );
+        }
+    }
+
+    // operators that only take numbers, the generic version is the checked one
+    private abstract static class NumberNode extends BinaryNode {
+        NumberNode(ClosureCompiler.ExprNode left, Token operator, ClosureCompiler.ExprNode right){
+            super(left, operator, right);
+        }
+
+        @Override
+        Object generic(Object l, Object r){
+            Interpreter.checkNumberOperands(operator, r, l);
+            return doubles((double) l, (double) r);
+        }
+    }
+
+    // unary minus, specializes to doubles the same way
+    static final class Negate implements ClosureCompiler.ExprNode {
+        private final ClosureCompiler.ExprNode right;
+        private final Token operator;
+        Specialization specialization = Specialization.UNINITIALIZED;
+
+        Negate(Token operator, ClosureCompiler.ExprNode right){
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Interpreter runner, Frame frame){
+            if(specialization != Specialization.DOUBLE) return evalGeneric(runner, frame);
+            try {
+                return evalDouble(runner, frame);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        public double evalDouble(Interpreter runner, Frame frame) throws UnexpectedResult{
+            if(specialization != Specialization.DOUBLE) return expectDouble(evalGeneric(runner, frame));
+            try {
+                return -right.evalDouble(runner, frame);
+            } catch (UnexpectedResult e) {
+                specialization = Specialization.GENERIC;
+                Interpreter.checkNumberOperand(operator, e.result);
+                return -(double) e.result;
+            }
+        }
+
+        private Object evalGeneric(Interpreter runner, Frame frame){
+            Object r = right.eval(runner, frame);
+            if(specialization != Specialization.GENERIC){
+                specialization = specialization == Specialization.UNINITIALIZED && r instanceof Double
+                        ? Specialization.DOUBLE : Specialization.GENERIC;
+            }
+            Interpreter.checkNumberOperand(operator, r);
+            return -(double) r;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.craftingInterpreters.lox;
+// a lox function call that took longer than the threshold, callees included. with the default
+// threshold only slow calls are kept, so a continuous recording doesn't fill up with them
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("lox.Call")
+@Label("Lox Call")
+@Category("Lox")
+@Threshold("10 ms")
+@StackTrace(false)
+class CallEvent extends jdk.jfr.Event {
+    @Label("Function")
+    String function;
+
+    @Label("Declaration Line")
+    @Description("Line the function was declared on, not the line of the call")
+    int declarationLine;
+}
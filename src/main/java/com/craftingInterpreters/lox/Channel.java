@@ -0,0 +1,151 @@
+package com.craftingInterpreters.lox;
+// bounded queue of values for fibers to hand each other. send waits while it's full and receive
+// while it's empty. once closed, sends fail and receives drain what's left and then give nil.
+// waits go through ReentrantLock rather than monitors so a waiting fiber frees its carrier thread
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class Channel {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    // threads in a select that includes this channel, woken when a value comes or it closes
+    private final List<Thread> selecting = new ArrayList<>();
+
+    private Channel(int capacity){
+        buffer = new Object[capacity];
+    }
+
+    // channel(capacity)
+    static Object create(Interpreter interpreter, List<Object> arguments){
+        if(!(arguments.get(0) instanceof Double capacity) || capacity < 1 || capacity != Math.floor(capacity) || capacity > Integer.MAX_VALUE){
+            throw new NativeError("Channel capacity must be a whole number of at least 1");
+        }
+        return new Channel(capacity.intValue());
+    }
+
+    // send(channel, value)
+    static Object send(Interpreter interpreter, List<Object> arguments) throws InterruptedException {
+        Channel channel = channel(arguments.get(0));
+        channel.lock.lockInterruptibly();
+        try {
+            while(channel.count == channel.buffer.length && !channel.closed) channel.notFull.await();
+            if(channel.closed) throw new NativeError("Can't send on a closed channel");
+            channel.buffer[(channel.head + channel.count) % channel.buffer.length] = arguments.get(1);
+            channel.count++;
+            channel.notEmpty.signal();
+            channel.wakeSelecting();
+        } finally {
+            channel.lock.unlock();
+        }
+        return null;
+    }
+
+    // receive(channel)
+    static Object receive(Interpreter interpreter, List<Object> arguments) throws InterruptedException {
+        Channel channel = channel(arguments.get(0));
+        channel.lock.lockInterruptibly();
+        try {
+            while(channel.count == 0 && !channel.closed) channel.notEmpty.await();
+            return channel.count == 0 ? null : channel.take();
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    // close(channel), closing it again does nothing
+    static Object close(Interpreter interpreter, List<Object> arguments){
+        Channel channel = channel(arguments.get(0));
+        channel.lock.lock();
+        try {
+            channel.closed = true;
+            channel.notEmpty.signalAll();
+            channel.notFull.signalAll();
+            channel.wakeSelecting();
+        } finally {
+            channel.lock.unlock();
+        }
+        return null;
+    }
+
+    // select(channel, ...), receives from whichever channel has a value first, nil once all of
+    // them are closed and drained. ready channels are tried from a random one on so none starves
+    static Object select(Interpreter interpreter, List<Object> arguments) throws InterruptedException {
+        if(arguments.isEmpty()) throw new NativeError("Select needs at least one channel");
+        Channel[] channels = new Channel[arguments.size()];
+        for(int i = 0; i < channels.length; i++) channels[i] = channel(arguments.get(i));
+        Thread current = Thread.currentThread();
+        for(;;){
+            int first = ThreadLocalRandom.current().nextInt(channels.length);
+            boolean open = false;
+            // checked and registered with each channel under its lock, a send that comes
+            // after the check finds this thread registered and wakes it
+            int registered = 0;
+            for(; registered < channels.length; registered++){
+                Channel channel = channels[(first + registered) % channels.length];
+                channel.lock.lock();
+                try {
+                    if(channel.count > 0){
+                        Object value = channel.take();
+                        unregister(channels, first, registered, current);
+                        return value;
+                    }
+                    if(!channel.closed) open = true;
+                    channel.selecting.add(current);
+                } finally {
+                    channel.lock.unlock();
+                }
+            }
+            if(open) LockSupport.park(channels);
+            unregister(channels, first, registered, current);
+            if(!open) return null;
+            if(Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    private static void unregister(Channel[] channels, int first, int count, Thread thread){
+        for(int i = 0; i < count; i++){
+            Channel channel = channels[(first + i) % channels.length];
+            channel.lock.lock();
+            try {
+                channel.selecting.remove(thread);
+            } finally {
+                channel.lock.unlock();
+            }
+        }
+    }
+
+    private static Channel channel(Object value){
+        if(!(value instanceof Channel channel)) throw new NativeError("Expected a channel");
+        return channel;
+    }
+
+    // with the lock held and a value in the buffer
+    private Object take(){
+        Object value = buffer[head];
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        count--;
+        notFull.signal();
+        return value;
+    }
+
+    // with the lock held
+    private void wakeSelecting(){
+        for(Thread thread: selecting) LockSupport.unpark(thread);
+    }
+
+    @Override
+    public String toString(){
+        return "<channel>";
+    }
+}
@@ -0,0 +1,418 @@
+package com.craftingInterpreters.lox;
+// compiles the resolved tree once into nodes with their operators, slots and literals
+// already picked out, so running a node only calls its children
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+    interface ExprNode{
+        Object eval(Interpreter runner, Frame frame);
+
+        // typed entry points, nodes that can produce the primitive without boxing override these
+        default double evalDouble(Interpreter runner, Frame frame) throws UnexpectedResult{
+            Object value = eval(runner, frame);
+            if(value instanceof Double number) return number;
+            throw new UnexpectedResult(value);
+        }
+
+        // truthiness of the value, for conditions
+        default boolean evalBoolean(Interpreter runner, Frame frame){
+            return Interpreter.isTruthy(eval(runner, frame));
+        }
+    }
+
+    // number literals hand out their value unboxed
+    private record NumberConstant(Double value) implements ExprNode{
+        @Override
+        public Object eval(Interpreter runner, Frame frame){
+            return value;
+        }
+
+        @Override
+        public double evalDouble(Interpreter runner, Frame frame){
+            return value;
+        }
+    }
+
+    // hands back Interpreter.NORMAL or the value of a return that ran, like the tree walker
+    interface StmtNode{
+        Object exec(Interpreter runner, Frame frame);
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    ClosureCompiler(Interpreter interpreter){
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements){
+        StmtNode[] program = compile(statements);
+        try{
+            // top-level code runs without a frame, its variables are globals
+            for(StmtNode node : program){
+                node.exec(interpreter, null);
+            }
+        }catch (RuntimeError error){
+            interpreter.context.runtimeError(error);
+        }
+    }
+
+    StmtNode[] compile(List<Stmt> statements){
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for(int i = 0; i < nodes.length; i++){
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private StmtNode compile(Stmt stmt){
+        StmtNode node = stmt.accept(this);
+        // counting is only compiled in when it's on
+        ExactProfiler exactProfiler = interpreter.exactProfiler;
+        if(exactProfiler == null) return node;
+        int line = stmt.line;
+        return (runner, frame) -> {
+            exactProfiler.line(line);
+            return node.exec(runner, frame);
+        };
+    }
+
+    private ExprNode compile(Expr expr){
+        return expr.accept(this);
+    }
+
+    // expression nodes
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        int depth = expr.depth, slot = expr.slot;
+        if(slot == -1) return (runner, frame) -> {
+            Object result = value.eval(runner, frame);
+            globals.assign(name, result);
+            return result;
+        };
+        if(depth == 0) return (runner, frame) -> frame.slots[slot] = value.eval(runner, frame);
+        return (runner, frame) -> {
+            Object result = value.eval(runner, frame);
+            frame.assignAt(depth, slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        return BinaryNode.create(compile(expr.left), expr.operator, compile(expr.right));
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        // grouping only matters to the parser
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if(value instanceof Double number) return new NumberConstant(number);
+        return (runner, frame) -> value;
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+        return switch (operator.type()){
+            case TokenType.BANG -> (runner, frame) -> !right.evalBoolean(runner, frame);
+            case TokenType.MINUS -> new BinaryNode.Negate(operator, right);
+            default -> (runner, frame) -> {
+                right.eval(runner, frame);
+                return null;
+            };
+        };
+    }
+
+    @Override
+    public ExprNode visitVarExpr(Expr.Var expr) {
+        Token name = expr.name;
+        int depth = expr.depth, slot = expr.slot;
+        if(slot == -1) return (runner, frame) -> globals.get(name);
+        return local(depth, slot);
+    }
+
+    private ExprNode local(int depth, int slot){
+        return switch (depth){
+            case 0 -> (runner, frame) -> frame.slots[slot];
+            case 1 -> (runner, frame) -> frame.enclosing.slots[slot];
+            default -> (runner, frame) -> frame.getAt(depth, slot);
+        };
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        if(expr.operator.type() == TokenType.AND) return (runner, frame) -> {
+            Object l = left.eval(runner, frame);
+            if(!Interpreter.isTruthy(l)) return l;
+            return right.eval(runner, frame);
+        };
+        return (runner, frame) -> {
+            Object l = left.eval(runner, frame);
+            if(Interpreter.isTruthy(l)) return l;
+            return right.eval(runner, frame);
+        };
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for(int i = 0; i < arguments.length; i++){
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        Token paren = expr.paren;
+        // method calls look the method up unbound and hand it the receiver directly
+        if(expr.callee instanceof Expr.GetExpression get){
+            ExprNode object = compile(get.object);
+            Token name = get.name;
+            PropertyCache cache = get.cache;
+            return (runner, frame) -> {
+                Object value = object.eval(runner, frame);
+                if(!(value instanceof LoxInstance instance)) throw new RuntimeError(name, "Only instances can have properties");
+                return call(cache.lookup(instance, name, runner.globals), instance, arguments, paren, runner, frame);
+            };
+        }
+        if(expr.callee instanceof Expr.Super superExpr){
+            int depth = superExpr.depth;
+            return (runner, frame) -> {
+                LoxClass superClass = (LoxClass) frame.getAt(depth, 0);
+                LoxInstance object = (LoxInstance) frame.getAt(depth - 1, 0);
+                return call(Interpreter.superMethod(superExpr, superClass), object, arguments, paren, runner, frame);
+            };
+        }
+        ExprNode callee = compile(expr.callee);
+        return (runner, frame) -> call(callee.eval(runner, frame), null, arguments, paren, runner, frame);
+    }
+
+    // the runner is the interpreter of the thread making the call, fibers have their own
+    private static Object call(Object called, LoxInstance receiver, ExprNode[] arguments, Token paren, Interpreter runner, Frame frame){
+        if(!(called instanceof LoxCallable function))throw new RuntimeError(paren, "Expression is not callable, only functions and classes are callable");
+
+        if(function instanceof LoxFunction method && method.arity() == arguments.length){
+            // arguments go straight into the callee's frame
+            Frame calleeFrame = method.frame(receiver);
+            int first = method.firstParameter();
+            for(int i = 0; i < arguments.length; i++){
+                calleeFrame.slots[first + i] = arguments[i].eval(runner, frame);
+            }
+            return method.run(runner, calleeFrame);
+        }
+        List<Object> values = new ArrayList<>(arguments.length);
+        for(ExprNode argument: arguments){
+            values.add(argument.eval(runner, frame));
+        }
+        Interpreter.checkArity(function, values.size(), paren);
+        return Interpreter.callNative(function, runner, values, paren);
+    }
+
+    @Override
+    public ExprNode visitGetExpressionExpr(Expr.GetExpression expr) {
+        ExprNode object = compile(expr.object);
+        Token name = expr.name;
+        PropertyCache cache = expr.cache;
+        return (runner, frame) -> {
+            Object value = object.eval(runner, frame);
+            if(value instanceof LoxInstance instance){
+                return cache.get(instance, name, runner.globals);
+            }
+            throw new RuntimeError(name, "Only instances can have properties");
+        };
+    }
+
+    @Override
+    public ExprNode visitSetExpressionExpr(Expr.SetExpression expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        PropertyCache cache = expr.cache;
+        return (runner, frame) -> {
+            Object target = object.eval(runner, frame);
+            if(target instanceof LoxInstance instance){
+                Object result = value.eval(runner, frame);
+                cache.set(instance, name, result, runner.globals);
+                return result;
+            }
+            throw new RuntimeError(name, "Only instances can have properties");
+        };
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        int depth = expr.depth;
+        return (runner, frame) -> {
+            LoxClass superClass = (LoxClass) frame.getAt(depth, 0);
+            // current object is always one frame closer than its super
+            LoxInstance object = (LoxInstance) frame.getAt(depth - 1, 0);
+            return Interpreter.superMethod(expr, superClass).bind(object);
+        };
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return local(expr.depth, 0);
+    }
+
+    // statement nodes
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return (runner, frame) -> {
+            expression.eval(runner, frame);
+            return Interpreter.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        PrintStream out = interpreter.context.out;
+        return (runner, frame) -> {
+            out.println(Interpreter.stringify(expression.eval(runner, frame)));
+            return Interpreter.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = stmt.initializer == null ? (runner, frame) -> null : compile(stmt.initializer);
+        Token name = stmt.name;
+        int slot = stmt.slot;
+        if(slot == -1) return (runner, frame) -> {
+            globals.define(name, initializer.eval(runner, frame));
+            return Interpreter.NORMAL;
+        };
+        return (runner, frame) -> {
+            frame.slots[slot] = initializer.eval(runner, frame);
+            return Interpreter.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode[] statements = compile(stmt.statements);
+        int size = stmt.frameSize;
+        // blocks without declarations run in the enclosing frame
+        if(size == 0) return (runner, frame) -> run(statements, runner, frame);
+        return (runner, frame) -> run(statements, runner, new Frame(frame, size));
+    }
+
+    private static Object run(StmtNode[] statements, Interpreter runner, Frame frame){
+        for(StmtNode statement : statements){
+            Object completion = statement.exec(runner, frame);
+            if(completion != Interpreter.NORMAL) return completion;
+        }
+        return Interpreter.NORMAL;
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode thenStmt = compile(stmt.thenStmt);
+        if(stmt.elseStmt == null) return (runner, frame) -> {
+            if(condition.evalBoolean(runner, frame)) return thenStmt.exec(runner, frame);
+            return Interpreter.NORMAL;
+        };
+        StmtNode elseStmt = compile(stmt.elseStmt);
+        return (runner, frame) -> {
+            if(condition.evalBoolean(runner, frame)) return thenStmt.exec(runner, frame);
+            return elseStmt.exec(runner, frame);
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode loop = compile(stmt.loop);
+        return (runner, frame) -> {
+            while (condition.evalBoolean(runner, frame)){
+                Object completion = loop.exec(runner, frame);
+                if(completion != Interpreter.NORMAL) return completion;
+            }
+            return Interpreter.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction.Body body = compileBody(stmt);
+        Token name = stmt.name;
+        int slot = stmt.slot;
+        if(slot == -1) return (runner, frame) -> {
+            globals.define(name, new LoxFunction(stmt, frame, false, body));
+            return Interpreter.NORMAL;
+        };
+        return (runner, frame) -> {
+            frame.slots[slot] = new LoxFunction(stmt, frame, false, body);
+            return Interpreter.NORMAL;
+        };
+    }
+
+    LoxFunction.Body compileBody(Stmt.Function stmt){
+        StmtNode[] statements = compile(stmt.body);
+        return (runner, frame) -> {
+            Object completion = run(statements, runner, frame);
+            return completion == Interpreter.NORMAL ? null : completion;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+        ExprNode value = compile(stmt.expr);
+        return value::eval;
+    }
+
+    @Override
+    public StmtNode visitClassStmtStmt(Stmt.ClassStmt stmt) {
+        ExprNode superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+        LoxFunction.Body[] bodies = new LoxFunction.Body[stmt.methods.size()];
+        for(int i = 0; i < bodies.length; i++){
+            bodies[i] = compileBody(stmt.methods.get(i));
+        }
+        Token name = stmt.name;
+        int slot = stmt.slot;
+        return (runner, frame) -> {
+            LoxClass superClass = null;
+            if(superclass != null){
+                Object evaluatedSuperClass = superclass.eval(runner, frame);
+                if(!(evaluatedSuperClass instanceof LoxClass)) throw new RuntimeError(
+                        stmt.superclass.name, "Superclass must be a class"
+                );
+                superClass = (LoxClass) evaluatedSuperClass;
+            }
+
+            if(slot != -1) frame.slots[slot] = null;
+            else globals.define(name, null);
+
+            Frame closure = frame;
+            if(superclass != null){
+                closure = new Frame(frame, 1);
+                closure.slots[0] = superClass;
+            }
+
+            SymbolMap<LoxFunction> methods = new SymbolMap<>(bodies.length);
+            for(int i = 0; i < bodies.length; i++){
+                Stmt.Function method = stmt.methods.get(i);
+                methods.put(method.name.symbol(), new LoxFunction(method, closure, method.name.symbol() == Symbols.INIT, bodies[i]));
+            }
+            LoxClass loxClass = new LoxClass(name.lexeme(), name.line(), methods, superClass);
+
+            if(slot != -1) frame.slots[slot] = loxClass;
+            else globals.assign(name, loxClass);
+            return Interpreter.NORMAL;
+        };
+    }
+}
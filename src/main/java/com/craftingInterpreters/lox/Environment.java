@@ -1,10 +1,15 @@
 package com.craftingInterpreters.lox;
 
-import java.util.HashMap;
-
 public class Environment {
-    final HashMap<String, Object> environmentMapping = new HashMap<>();
+    // keyed by the symbol of the name
+    final SymbolMap<Object> environmentMapping = new SymbolMap<>();
     final Environment enclosing;
+    // goes up whenever a name holding a function or class is given a new value
+    int callableVersion = 0;
+    // set when the first fiber is spawned against these globals. until then they, and the
+    // instances and memo tables of the code running against them, are only touched by the
+    // context's own thread and skip the locking fibers need. other contexts never see it
+    boolean shared = false;
 
     Environment(){
         this.enclosing = null;
@@ -13,37 +18,63 @@ public class Environment {
         this.enclosing = enclosing;
     }
     void define(String name, Object value){
-        environmentMapping.put(name, value);
+        define(Symbols.intern(name), value);
     }
 
-    Object get(Token name){
-        if(environmentMapping.containsKey(name.lexeme()))return environmentMapping.get(name.lexeme());
-        if(enclosing == null) throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
-        return enclosing.get(name);
+    void define(Token name, Object value){
+        define(name.symbol(), value);
     }
 
-    void assign(Token name, Object value){
-        if(environmentMapping.containsKey(name.lexeme())){
-            environmentMapping.put(name.lexeme(), value);
+    // locked once fibers may share the globals
+    private void define(int symbol, Object value){
+        if(shared){
+            synchronized (this){
+                put(symbol, value);
+            }
             return;
         }
-        if(enclosing == null)throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
-        enclosing.assign(name, value);
+        put(symbol, value);
     }
 
-    Object getAt(Integer distance, String name){
-        return ancestor(distance).environmentMapping.get(name);
+    private void put(int symbol, Object value){
+        if(environmentMapping.get(symbol) instanceof LoxCallable) callableVersion++;
+        environmentMapping.put(symbol, value);
     }
 
-    void assignAt(Integer distance, String name, Object value){
-        ancestor(distance).environmentMapping.put(name, value);
+    Object get(Token name){
+        if(shared){
+            synchronized (this){
+                return lookup(name);
+            }
+        }
+        return lookup(name);
     }
 
-    Environment ancestor(int distance){
-        Environment environment = this;
-        for(int i = distance; i > 0; i--){
-            environment = environment.enclosing;
+    private Object lookup(Token name){
+        int index = environmentMapping.find(name.symbol());
+        if(index >= 0) return environmentMapping.valueAt(index);
+        if(enclosing == null) throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
+        return enclosing.get(name);
+    }
+
+    void assign(Token name, Object value){
+        if(shared){
+            synchronized (this){
+                update(name, value);
+            }
+            return;
+        }
+        update(name, value);
+    }
+
+    private void update(Token name, Object value){
+        int index = environmentMapping.find(name.symbol());
+        if(index >= 0){
+            if(environmentMapping.valueAt(index) instanceof LoxCallable) callableVersion++;
+            environmentMapping.setValueAt(index, value);
+            return;
         }
-        return environment;
+        if(enclosing == null)throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
+        enclosing.assign(name, value);
     }
 }
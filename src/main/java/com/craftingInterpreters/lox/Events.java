@@ -0,0 +1,14 @@
+package com.craftingInterpreters.lox;
+// the check every lox flight recorder event is made behind. loading the first event class costs
+// a few hundred ms, so no event class is touched until flight recorder is running. once it is,
+// an event does nothing unless a recording has it on
+
+import jdk.jfr.FlightRecorder;
+
+final class Events {
+    private Events(){}
+
+    static boolean recording(){
+        return FlightRecorder.isInitialized();
+    }
+}
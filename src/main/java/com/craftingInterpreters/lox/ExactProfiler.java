@@ -0,0 +1,153 @@
+package com.craftingInterpreters.lox;
+// exact profile of a run, for when a sample can't tell a slow call from one made too often. every
+// function call and class construction is counted and timed, self time being what's left after
+// the calls it made, and every statement run is counted against its line. a recursive function's
+// total time is only taken from its outermost call, so it isn't counted once per level
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+final class ExactProfiler {
+    private static final class Entry {
+        final String name;
+        long calls = 0;
+        long selfNanos = 0;
+        long totalNanos = 0;
+        // calls of it in progress
+        int active = 0;
+
+        Entry(String name){
+            this.name = name;
+        }
+    }
+
+    // the report's lines, at most this many in the text version
+    private static final int LINES_SHOWN = 20;
+
+    // function declarations and classes, each by what it is rather than by name
+    private final Map<Object, Entry> entries = new IdentityHashMap<>();
+    private Entry[] stack = new Entry[64];
+    private long[] started = new long[64];
+    // time spent in the calls each call in progress made
+    private long[] children = new long[64];
+    private int depth = 0;
+    // statements run, by line
+    private long[] lines = new long[256];
+
+    void line(int line){
+        if(line >= lines.length) lines = Arrays.copyOf(lines, Math.max(line + 1, lines.length * 2));
+        lines[line]++;
+    }
+
+    void enter(Stmt.Function function){
+        Entry entry = entries.get(function);
+        if(entry == null){
+            entry = new Entry(function.name.lexeme() + ":" + function.name.line());
+            entries.put(function, entry);
+        }
+        enter(entry);
+    }
+
+    void enter(LoxClass loxClass){
+        Entry entry = entries.get(loxClass);
+        if(entry == null){
+            entry = new Entry("class " + loxClass.name);
+            entries.put(loxClass, entry);
+        }
+        enter(entry);
+    }
+
+    private void enter(Entry entry){
+        if(depth == stack.length){
+            stack = Arrays.copyOf(stack, depth * 2);
+            started = Arrays.copyOf(started, depth * 2);
+            children = Arrays.copyOf(children, depth * 2);
+        }
+        entry.calls++;
+        entry.active++;
+        stack[depth] = entry;
+        children[depth] = 0;
+        started[depth] = System.nanoTime();
+        depth++;
+    }
+
+    // ends the innermost call, however it ended
+    void exit(){
+        long elapsed = System.nanoTime() - started[--depth];
+        Entry entry = stack[depth];
+        stack[depth] = null;
+        entry.selfNanos += elapsed - children[depth];
+        if(--entry.active == 0) entry.totalNanos += elapsed;
+        if(depth > 0) children[depth - 1] += elapsed;
+    }
+
+    // entries with the same name, such as a class declared again on each pass of a loop, count as one
+    private List<Entry> functions(){
+        Map<String, Entry> merged = new LinkedHashMap<>();
+        for(Entry entry: entries.values()){
+            Entry sum = merged.computeIfAbsent(entry.name, Entry::new);
+            sum.calls += entry.calls;
+            sum.selfNanos += entry.selfNanos;
+            sum.totalNanos += entry.totalNanos;
+        }
+        List<Entry> sorted = new ArrayList<>(merged.values());
+        sorted.sort(Comparator.comparingLong((Entry entry) -> entry.selfNanos).reversed());
+        return sorted;
+    }
+
+    // lines that ran, most run first
+    private List<Integer> hotLines(){
+        List<Integer> hot = new ArrayList<>();
+        for(int line = 0; line < lines.length; line++){
+            if(lines[line] > 0) hot.add(line);
+        }
+        hot.sort(Comparator.comparingLong((Integer line) -> lines[line]).reversed());
+        return hot;
+    }
+
+    // functions by self time, then the lines that ran most
+    void report(PrintStream out){
+        out.printf("%12s %12s %12s  %s%n", "calls", "self ms", "total ms", "function");
+        for(Entry entry: functions()){
+            out.printf(Locale.ROOT, "%12d %12.3f %12.3f  %s%n", entry.calls, entry.selfNanos / 1e6, entry.totalNanos / 1e6, entry.name);
+        }
+        out.println();
+        out.printf("%12s  %s%n", "runs", "line");
+        List<Integer> hot = hotLines();
+        for(int line: hot.subList(0, Math.min(hot.size(), LINES_SHOWN))){
+            out.printf("%12d  %d%n", lines[line], line);
+        }
+        if(hot.size() > LINES_SHOWN) out.println("and " + (hot.size() - LINES_SHOWN) + " more lines");
+    }
+
+    void writeJson(Writer writer){
+        PrintWriter out = new PrintWriter(writer);
+        out.println("{");
+        out.println("  \"functions\": [");
+        List<Entry> functions = functions();
+        for(int i = 0; i < functions.size(); i++){
+            Entry entry = functions.get(i);
+            out.printf(Locale.ROOT, "    {\"name\": \"%s\", \"calls\": %d, \"self_ms\": %.3f, \"total_ms\": %.3f}%s%n",
+                    entry.name, entry.calls, entry.selfNanos / 1e6, entry.totalNanos / 1e6, i + 1 < functions.size() ? "," : "");
+        }
+        out.println("  ],");
+        out.println("  \"lines\": [");
+        List<Integer> hot = hotLines();
+        for(int i = 0; i < hot.size(); i++){
+            int line = hot.get(i);
+            out.printf("    {\"line\": %d, \"runs\": %d}%s%n", line, lines[line], i + 1 < hot.size() ? "," : "");
+        }
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+}
@@ -2,8 +2,8 @@ package com.craftingInterpreters.lox;
 
 import java.util.List;
 
-abstract class Expr {
- interface Visitor<R> {
+public abstract class Expr {
+ public interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitGroupingExpr(Grouping expr);
@@ -17,21 +17,23 @@ abstract class Expr {
     R visitSuperExpr(Super expr);
     R visitThisExpr(This expr);
   }
- static class Assign extends Expr {
+ public static class Assign extends Expr {
      Assign(Token name, Expr value) {
         this.name = name;
         this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitAssignExpr(this);
     }
 
-    final Token name;
-    final Expr value;
+    public final Token name;
+    public final Expr value;
+    int depth = -1;
+    int slot = -1;
    }
- static class Binary extends Expr {
+ public static class Binary extends Expr {
      Binary(Expr left, Token operator, Expr right) {
         this.left = left;
         this.operator = operator;
@@ -39,65 +41,68 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitBinaryExpr(this);
     }
 
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
    }
- static class Grouping extends Expr {
+ public static class Grouping extends Expr {
      Grouping(Expr expression) {
         this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitGroupingExpr(this);
     }
 
-    final Expr expression;
+    public final Expr expression;
    }
- static class Literal extends Expr {
+ public static class Literal extends Expr {
      Literal(Object value) {
         this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitLiteralExpr(this);
     }
 
-    final Object value;
+    public final Object value;
    }
- static class Unary extends Expr {
+ public static class Unary extends Expr {
      Unary(Token operator, Expr right) {
         this.operator = operator;
         this.right = right;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitUnaryExpr(this);
     }
 
-    final Token operator;
-    final Expr right;
+    public final Token operator;
+    public final Expr right;
    }
- static class Var extends Expr {
+ public static class Var extends Expr {
      Var(Token name) {
         this.name = name;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitVarExpr(this);
     }
 
-    final Token name;
+    public final Token name;
+    int depth = -1;
+    int slot = -1;
+    Stmt.Var declaration = null;
    }
- static class Logical extends Expr {
+ public static class Logical extends Expr {
      Logical(Expr left, Token operator, Expr right) {
         this.left = left;
         this.operator = operator;
@@ -105,15 +110,15 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitLogicalExpr(this);
     }
 
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
    }
- static class Call extends Expr {
+ public static class Call extends Expr {
      Call(Expr callee, Token paren, List<Expr> arguments) {
         this.callee = callee;
         this.paren = paren;
@@ -121,29 +126,30 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitCallExpr(this);
     }
 
-    final Expr callee;
-    final Token paren;
-    final List<Expr> arguments;
+    public final Expr callee;
+    public final Token paren;
+    public final List<Expr> arguments;
    }
- static class GetExpression extends Expr {
+ public static class GetExpression extends Expr {
      GetExpression(Expr object, Token name) {
         this.object = object;
         this.name = name;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitGetExpressionExpr(this);
     }
 
-    final Expr object;
-    final Token name;
+    public final Expr object;
+    public final Token name;
+    PropertyCache cache = new PropertyCache();
    }
- static class SetExpression extends Expr {
+ public static class SetExpression extends Expr {
      SetExpression(Expr object, Token name, Expr value) {
         this.object = object;
         this.name = name;
@@ -151,40 +157,44 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitSetExpressionExpr(this);
     }
 
-    final Expr object;
-    final Token name;
-    final Expr value;
+    public final Expr object;
+    public final Token name;
+    public final Expr value;
+    PropertyCache cache = new PropertyCache();
    }
- static class Super extends Expr {
+ public static class Super extends Expr {
      Super(Token Keyword, Token method) {
         this.Keyword = Keyword;
         this.method = method;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitSuperExpr(this);
     }
 
-    final Token Keyword;
-    final Token method;
+    public final Token Keyword;
+    public final Token method;
+    int depth = -1;
+    Interpreter.SuperCache cached = null;
    }
- static class This extends Expr {
+ public static class This extends Expr {
      This(Token keyword) {
         this.keyword = keyword;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitThisExpr(this);
     }
 
-    final Token keyword;
+    public final Token keyword;
+    int depth = -1;
    }
 
-   abstract <R> R accept(Visitor<R> visitor);
+   public abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,53 @@
+package com.craftingInterpreters.lox;
+// a lox function running on a virtual thread of its own. it gets an interpreter of its own, with
+// its own frames and call depth, that shares the globals, natives and output of the one that
+// spawned it. a runtime error in a fiber is reported when it happens, and join fails after it
+
+import java.util.List;
+
+final class Fiber {
+    private final Thread thread;
+    // set by the fiber, read after joining its thread
+    private Object result;
+    private boolean failed = false;
+
+    private Fiber(LoxFunction function, Interpreter interpreter){
+        // a plain field is enough, the spawning thread sees its own write and the fiber starts after it
+        interpreter.globals.shared = true;
+        thread = Thread.ofVirtual().name("lox-fiber").start(() -> run(function, interpreter));
+    }
+
+    private void run(LoxFunction function, Interpreter interpreter){
+        try {
+            result = function.call(interpreter, List.of());
+        } catch (RuntimeError error) {
+            failed = true;
+            interpreter.context.runtimeError(error);
+        }
+    }
+
+    // spawn(function), runs a function that takes no arguments
+    static Object spawn(Interpreter interpreter, List<Object> arguments){
+        if(!(arguments.get(0) instanceof LoxFunction function) || function.arity() != 0){
+            throw new NativeError("Can only spawn a function that takes no arguments");
+        }
+        // the profilers keep a single stack of calls
+        if(interpreter.profiler != null || interpreter.exactProfiler != null){
+            throw new NativeError("Can't spawn fibers while profiling");
+        }
+        return new Fiber(function, new Interpreter(interpreter));
+    }
+
+    // join(fiber), waits for it and hands back what its function returned
+    static Object join(Interpreter interpreter, List<Object> arguments) throws InterruptedException {
+        if(!(arguments.get(0) instanceof Fiber fiber)) throw new NativeError("Can only join a fiber");
+        fiber.thread.join();
+        if(fiber.failed) throw new NativeError("Joined fiber failed");
+        return fiber.result;
+    }
+
+    @Override
+    public String toString(){
+        return "<fiber>";
+    }
+}
@@ -0,0 +1,29 @@
+package com.craftingInterpreters.lox;
+
+// storage for one local scope, the resolver hands out a slot index for every variable
+// declared in it so reads and writes are plain array accesses
+public class Frame {
+    final Object[] slots;
+    final Frame enclosing;
+
+    Frame(Frame enclosing, int size){
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
+    }
+
+    Object getAt(int depth, int slot){
+        return ancestor(depth).slots[slot];
+    }
+
+    void assignAt(int depth, int slot, Object value){
+        ancestor(depth).slots[slot] = value;
+    }
+
+    Frame ancestor(int depth){
+        Frame frame = this;
+        for(int i = depth; i > 0; i--){
+            frame = frame.enclosing;
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,174 @@
+package com.craftingInterpreters.lox;
+// loads an image ImageWriter made into an interpreter's globals. every record is read first,
+// then the objects are made in the order they need each other: frames and instances start out
+// empty and are filled in last, which is what lets closures and instances form cycles.
+// anything that doesn't add up throws IllegalStateException
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class ImageReader {
+    private record Ref(int id){}
+    private record FrameRecord(Object enclosing, Object[] slots){}
+    private record FunctionRecord(Stmt.Function declaration, Object closure, boolean isInitializer, Object receiver){}
+    private record ClassRecord(String name, int line, Object superClass, String[] methodNames, Object[] methods){}
+    private record InstanceRecord(Object loxClass, String[] fields, Object[] values){}
+    private record NativeRecord(String name){}
+
+    private final AstReader in;
+    private final Interpreter interpreter;
+    // makes the body a function runs with on the backend that loads the image
+    private final Function<Stmt.Function, LoxFunction.Body> compile;
+    private final Map<Stmt.Function, LoxFunction.Body> bodies = new IdentityHashMap<>();
+    private Object[] records;
+    private Object[] objects;
+    // the prelude's tree, only read for the function declarations in it
+    List<Stmt> program;
+
+    ImageReader(ByteBuffer in, Interpreter interpreter, Function<Stmt.Function, LoxFunction.Body> compile){
+        this.in = new AstReader(in);
+        this.interpreter = interpreter;
+        this.compile = compile;
+    }
+
+    void load(){
+        if(!in.header(ImageWriter.MAGIC, ImageWriter.VERSION)) throw new IllegalStateException("Image was written by another version");
+        program = in.readStmts();
+
+        int count = in.readInt();
+        records = new Object[count];
+        objects = new Object[count];
+        for(int i = 0; i < count; i++){
+            records[i] = readRecord();
+        }
+
+        for(int i = 0; i < count; i++){
+            if(records[i] instanceof FrameRecord) frame(i);
+            else if(records[i] instanceof NativeRecord record){
+                objects[i] = interpreter.natives.get(record.name());
+                if(objects[i] == null) throw new IllegalStateException("Image needs the native " + record.name());
+            }
+        }
+        // methods straight out of a class come before the classes, bound ones after the instances
+        for(int i = 0; i < count; i++){
+            if(records[i] instanceof FunctionRecord record && record.receiver() == null) function(i, record);
+        }
+        for(int i = 0; i < count; i++){
+            if(records[i] instanceof ClassRecord) loxClass(i);
+        }
+        for(int i = 0; i < count; i++){
+            if(records[i] instanceof InstanceRecord record) objects[i] = new LoxInstance((LoxClass) value(record.loxClass()));
+        }
+        for(int i = 0; i < count; i++){
+            if(records[i] instanceof FunctionRecord record && record.receiver() != null) function(i, record);
+        }
+
+        for(int i = 0; i < count; i++){
+            if(records[i] instanceof FrameRecord record){
+                Frame frame = (Frame) objects[i];
+                for(int slot = 0; slot < record.slots().length; slot++){
+                    frame.slots[slot] = value(record.slots()[slot]);
+                }
+            } else if(records[i] instanceof InstanceRecord record){
+                LoxInstance instance = (LoxInstance) objects[i];
+                for(int field = 0; field < record.fields().length; field++){
+                    instance.store(instance.shape.withField(Symbols.intern(record.fields()[field])), field, value(record.values()[field]));
+                }
+            }
+        }
+
+        int globals = in.readInt();
+        for(int i = 0; i < globals; i++){
+            String name = in.readString();
+            interpreter.globals.define(name, value(readRef()));
+        }
+        in.end();
+    }
+
+    private Object readRef(){
+        byte tag = in.readByte();
+        if(tag == ImageWriter.REF) return new Ref(in.readInt());
+        return in.readValue(tag);
+    }
+
+    private Object readRecord(){
+        byte kind = in.readByte();
+        switch (kind){
+            case ImageWriter.FRAME: {
+                Object enclosing = readRef();
+                Object[] slots = new Object[in.readInt()];
+                for(int i = 0; i < slots.length; i++) slots[i] = readRef();
+                return new FrameRecord(enclosing, slots);
+            }
+            case ImageWriter.FUNCTION:
+                return new FunctionRecord(in.functions.get(in.readInt()), readRef(), in.readFlag(), readRef());
+            case ImageWriter.CLASS: {
+                String name = in.readString();
+                int line = in.readInt();
+                Object superClass = readRef();
+                int size = in.readInt();
+                String[] methodNames = new String[size];
+                Object[] methods = new Object[size];
+                for(int i = 0; i < size; i++){
+                    methodNames[i] = in.readString();
+                    methods[i] = readRef();
+                }
+                return new ClassRecord(name, line, superClass, methodNames, methods);
+            }
+            case ImageWriter.INSTANCE: {
+                Object loxClass = readRef();
+                int size = in.readInt();
+                String[] fields = new String[size];
+                Object[] values = new Object[size];
+                for(int i = 0; i < size; i++){
+                    fields[i] = in.readString();
+                    values[i] = readRef();
+                }
+                return new InstanceRecord(loxClass, fields, values);
+            }
+            case ImageWriter.NATIVE:
+                return new NativeRecord(in.readString());
+            default:
+                throw new IllegalStateException("Bad record kind " + kind + " in image");
+        }
+    }
+
+    private Object value(Object read){
+        if(!(read instanceof Ref ref)) return read;
+        Object object = objects[ref.id()];
+        if(object == null) throw new IllegalStateException("Image record " + ref.id() + " used before it was made");
+        return object;
+    }
+
+    private Frame frame(int id){
+        if(objects[id] == null){
+            FrameRecord record = (FrameRecord) records[id];
+            Frame enclosing = record.enclosing() instanceof Ref ref ? frame(ref.id()) : null;
+            objects[id] = new Frame(enclosing, record.slots().length);
+        }
+        return (Frame) objects[id];
+    }
+
+    private void function(int id, FunctionRecord record){
+        Stmt.Function declaration = record.declaration();
+        LoxFunction.Body body = bodies.computeIfAbsent(declaration, compile);
+        LoxInstance receiver = (LoxInstance) value(record.receiver());
+        objects[id] = new LoxFunction(declaration, (Frame) value(record.closure()), record.isInitializer(), body, receiver);
+    }
+
+    private LoxClass loxClass(int id){
+        if(objects[id] == null){
+            ClassRecord record = (ClassRecord) records[id];
+            LoxClass superClass = record.superClass() instanceof Ref ref ? loxClass(ref.id()) : null;
+            SymbolMap<LoxFunction> methods = new SymbolMap<>(record.methods().length);
+            for(int i = 0; i < record.methods().length; i++){
+                methods.put(Symbols.intern(record.methodNames()[i]), (LoxFunction) value(record.methods()[i]));
+            }
+            objects[id] = new LoxClass(record.name(), record.line(), methods, superClass);
+        }
+        return (LoxClass) objects[id];
+    }
+}
@@ -0,0 +1,142 @@
+package com.craftingInterpreters.lox;
+// snapshots the globals of an interpreter that has run a prelude, so later runs can start from
+// the image instead of running the prelude again. the image holds the prelude's resolved tree,
+// then every object reachable from the globals as numbered records, then the globals. frames,
+// functions, classes and instances point at each other by record number, so sharing and cycles
+// survive. functions refer to their declaration in the tree, their bodies are made again on load
+// by whichever backend runs. natives are written by name, the loading interpreter has its own
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ImageWriter {
+    static final int MAGIC = 0x4C4F5849;
+    static final String VERSION = AstCache.VERSION + "/image-2";
+
+    // record kinds
+    static final byte FRAME = 1, FUNCTION = 2, CLASS = 3, INSTANCE = 4, NATIVE = 5;
+    // value tag for a record, beside the literal tags AstWriter uses for the rest
+    static final byte REF = 6;
+
+    private final AstWriter out = new AstWriter();
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> records = new ArrayList<>();
+    private final Map<LoxCallable, String> natives = new IdentityHashMap<>();
+
+    // program is the tree the prelude ran, every function in the globals was declared in it
+    byte[] write(Interpreter interpreter, List<Stmt> program){
+        interpreter.natives.forEach((name, function) -> natives.put(function, name));
+        out.header(MAGIC, VERSION);
+        out.writeList(program);
+
+        List<Map.Entry<String, Object>> globals = byName(interpreter.globals.environmentMapping);
+        for(Map.Entry<String, Object> global: globals){
+            reference(global.getValue());
+        }
+        // records found while walking get walked in turn
+        for(int i = 0; i < records.size(); i++){
+            walk(records.get(i));
+        }
+
+        out.integer(records.size());
+        for(Object record: records){
+            writeRecord(record);
+        }
+        out.integer(globals.size());
+        for(Map.Entry<String, Object> global: globals){
+            out.string(global.getKey());
+            writeRef(global.getValue());
+        }
+        return out.toBytes();
+    }
+
+    // a symbol map iterates in an order that hangs on the symbol numbers this process handed out,
+    // by name the same globals always make the same image, loaded or not
+    private static <V> List<Map.Entry<String, V>> byName(SymbolMap<V> map){
+        List<Map.Entry<String, V>> entries = new ArrayList<>();
+        map.forEach((value, symbol) -> entries.add(new AbstractMap.SimpleEntry<>(Symbols.name(symbol), value)));
+        entries.sort(Map.Entry.comparingByKey());
+        return entries;
+    }
+
+    private static boolean isPlain(Object value){
+        return value == null || value instanceof Boolean || value instanceof Double || value instanceof String;
+    }
+
+    private void reference(Object value){
+        if(isPlain(value) || ids.containsKey(value)) return;
+        if(!(value instanceof Frame || value instanceof LoxFunction || value instanceof LoxClass
+                || value instanceof LoxInstance || natives.containsKey(value))){
+            throw new IllegalStateException("Can't put " + value + " in an image");
+        }
+        ids.put(value, records.size());
+        records.add(value);
+    }
+
+    private void walk(Object record){
+        if(record instanceof Frame frame){
+            reference(frame.enclosing);
+            for(Object slot: frame.slots) reference(slot);
+        } else if(record instanceof LoxFunction function){
+            reference(function.closure);
+            reference(function.receiver);
+        } else if(record instanceof LoxClass loxClass){
+            reference(loxClass.superClass);
+            for(Map.Entry<String, LoxFunction> method: byName(loxClass.methods)) reference(method.getValue());
+        } else if(record instanceof LoxInstance instance){
+            reference(instance.loxClass);
+            for(int i = 0; i < instance.shape.size; i++) reference(instance.values[i]);
+        }
+    }
+
+    private void writeRef(Object value){
+        if(isPlain(value)){
+            out.writeValue(value);
+            return;
+        }
+        out.tag(REF);
+        out.integer(ids.get(value));
+    }
+
+    private void writeRecord(Object record){
+        if(record instanceof Frame frame){
+            out.tag(FRAME);
+            writeRef(frame.enclosing);
+            out.integer(frame.slots.length);
+            for(Object slot: frame.slots) writeRef(slot);
+        } else if(record instanceof LoxFunction function){
+            Integer declaration = out.functions.get(function.functionStatement);
+            if(declaration == null) throw new IllegalStateException("Can't put " + function.functionStatement.name.lexeme() + " in an image, it wasn't declared by the prelude");
+            out.tag(FUNCTION);
+            out.integer(declaration);
+            writeRef(function.closure);
+            out.flag(function.isInitializer);
+            writeRef(function.receiver);
+        } else if(record instanceof LoxClass loxClass){
+            out.tag(CLASS);
+            out.string(loxClass.name);
+            out.integer(loxClass.line);
+            writeRef(loxClass.superClass);
+            out.integer(loxClass.methods.size());
+            for(Map.Entry<String, LoxFunction> method: byName(loxClass.methods)){
+                out.string(method.getKey());
+                writeRef(method.getValue());
+            }
+        } else if(record instanceof LoxInstance instance){
+            out.tag(INSTANCE);
+            writeRef(instance.loxClass);
+            int[] fields = instance.shape.fields();
+            out.integer(fields.length);
+            for(int i = 0; i < fields.length; i++){
+                out.string(Symbols.name(fields[i]));
+                writeRef(instance.values[i]);
+            }
+        } else {
+            out.tag(NATIVE);
+            out.string(natives.get(record));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.craftingInterpreters.lox;
+// an instance made by calling a class, initializer included. off unless a recording turns it
+// on, a script can make millions of them
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.Instantiation")
+@Label("Lox Instantiation")
+@Category("Lox")
+@Enabled(false)
+@StackTrace(false)
+class InstantiationEvent extends jdk.jfr.Event {
+    @Label("Class")
+    String className;
+
+    @Label("Declaration Line")
+    @Description("Line the class was declared on, not the line of the call")
+    int declarationLine;
+}
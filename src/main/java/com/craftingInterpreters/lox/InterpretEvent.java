@@ -0,0 +1,16 @@
+package com.craftingInterpreters.lox;
+// running a resolved program on one of the backends
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.Interpret")
+@Label("Lox Interpret")
+@Category("Lox")
+@StackTrace(false)
+class InterpretEvent extends jdk.jfr.Event {
+    @Label("Backend")
+    String backend;
+}
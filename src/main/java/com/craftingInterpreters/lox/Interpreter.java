@@ -1,16 +1,39 @@
 package com.craftingInterpreters.lox;
 
+import com.craftingInterpreters.lox.vm.VM;
+
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    Environment environment = globals;
-    private final HashMap<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter(){
-        globals.define("clock", new LoxCallable(){
+import java.util.Map;
+
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
+    // where print goes and runtime errors are reported
+    final LoxContext context;
+    final Environment globals;
+    // innermost local frame, null while running top-level code
+    Frame frame = null;
+    // compiles hot functions to JVM code when set
+    Jit jit = null;
+    // keeps the shadow stack of lox calls when --profile is on
+    Profiler profiler = null;
+    // counts every call and statement when --exact-profile is on
+    ExactProfiler exactProfiler = null;
+    // Lox calls in progress and how many of them are allowed before it's a stack overflow
+    int depth = 0;
+    int maxDepth = VM.DEFAULT_MAX_DEPTH;
+    // statements hand this back when they run to the end, anything else, nil included,
+    // is the value of a return that ran and unwinds as a plain java return
+    static final Object NORMAL = new Object();
+
+    // functions written in java, by the global name they're defined under
+    final Map<String, LoxCallable> natives;
+
+    Interpreter(LoxContext context){
+        this.context = context;
+        this.globals = new Environment();
+        this.natives = new LinkedHashMap<>();
+        defineNative("clock", new LoxCallable(){
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 return (double) System.currentTimeMillis() / 1000.0;
@@ -19,6 +42,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public int arity(){return 0;}
         });
+        // fibers and the channels they talk over
+        defineNative("spawn", new LoxNative(1, Fiber::spawn));
+        defineNative("join", new LoxNative(1, Fiber::join));
+        defineNative("channel", new LoxNative(1, Channel::create));
+        defineNative("send", new LoxNative(2, Channel::send));
+        defineNative("receive", new LoxNative(1, Channel::receive));
+        defineNative("close", new LoxNative(1, Channel::close));
+        defineNative("select", new LoxNative(LoxNative.VARIADIC, Channel::select));
+    }
+
+    // an interpreter for a fiber, with frames and a call depth of its own on the fiber's thread
+    // and everything else shared with the interpreter that spawned it
+    Interpreter(Interpreter parent){
+        this.context = parent.context;
+        this.globals = parent.globals;
+        this.natives = parent.natives;
+        this.jit = parent.jit;
+        this.maxDepth = parent.maxDepth;
+    }
+
+    private void defineNative(String name, LoxCallable function){
+        natives.put(name, function);
+        globals.define(name, function);
     }
     void interpret(List<Stmt> statements){
         try{
@@ -26,20 +72,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         }catch (RuntimeError error){
-           Lox.runtimeError(error);
+           context.runtimeError(error);
         }
     }
 
-    void resolve(Expr expr, int depth){
-        locals.put(expr,depth);
-    }
-
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if(distance!= null){
-            environment.assignAt(distance, expr.name.lexeme(), value);
+        if(expr.slot != -1){
+            frame.assignAt(expr.depth, expr.slot, value);
         }else {
             globals.assign(expr.name, value);
         }
@@ -79,10 +120,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 checkNumberOperands(expr.operator, right, left);
                 return (double)left <= (double)right;
             case TokenType.BANG_EQUAL :
-                checkNumberOperands(expr.operator, right, left);
                 return !isEqual(left,right);
             case TokenType.EQUAL_EQUAL :
-                checkNumberOperands(expr.operator, right, left);
                 return isEqual(left,right);
             default : return null;
         }
@@ -112,16 +151,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVarExpr(Expr.Var expr) {
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr){
-       Integer distance = locals.get(expr);
-       if(distance != null) {
-           return environment.getAt(distance, name.lexeme());
-       }else{
-           return globals.get(name);
-       }
+        if(expr.slot != -1) {
+            return frame.getAt(expr.depth, expr.slot);
+        }else{
+            return globals.get(expr.name);
+        }
     }
 
     @Override
@@ -134,25 +168,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        // method calls look the method up unbound and hand it the receiver directly
+        LoxInstance receiver = null;
+        Object callee;
+        if(expr.callee instanceof Expr.GetExpression get){
+            Object object = evaluate(get.object);
+            if(!(object instanceof LoxInstance instance)) throw new RuntimeError(get.name, "Only instances can have properties");
+            receiver = instance;
+            callee = get.cache.lookup(instance, get.name, globals);
+        } else if(expr.callee instanceof Expr.Super superExpr){
+            LoxClass superClass = (LoxClass) frame.getAt(superExpr.depth, 0);
+            receiver = (LoxInstance) frame.getAt(superExpr.depth - 1, 0);
+            callee = superMethod(superExpr, superClass);
+        } else {
+            callee = evaluate(expr.callee);
+        }
         if(!(callee instanceof LoxCallable function))throw new RuntimeError(expr.paren, "Expression is not callable, only functions and classes are callable");
 
+        if(function instanceof LoxFunction method && method.arity() == expr.arguments.size()){
+            // arguments go straight into the callee's frame
+            Frame calleeFrame = method.frame(receiver);
+            int first = method.firstParameter();
+            for(int i = 0; i < expr.arguments.size(); i++){
+                calleeFrame.slots[first + i] = evaluate(expr.arguments.get(i));
+            }
+            return method.run(this, calleeFrame);
+        }
+
         List<Object> arguments = new ArrayList<>();
         for(Expr argument: expr.arguments){
             arguments.add(evaluate(argument));
         }
-        if(arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments, got "
-           + arguments.size() + " instead" );
-        }
-        return function.call(this,arguments);
+        checkArity(function, arguments.size(), expr.paren);
+        return callNative(function, this, arguments, expr.paren);
     }
 
     @Override
     public Object visitGetExpressionExpr(Expr.GetExpression expr) {
         Object object = evaluate(expr.object);
         if(object instanceof LoxInstance){
-           return ((LoxInstance) object).get(expr.name);
+           return expr.cache.get((LoxInstance) object, expr.name, globals);
         }
         throw new RuntimeError(expr.name, "Only instances can have properties");
     }
@@ -162,7 +217,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object);
         if(object instanceof LoxInstance){
             Object value = evaluate(expr.value);
-            ((LoxInstance) object).set(expr.name, value);
+            expr.cache.set((LoxInstance) object, expr.name, value, globals);
             return value;
         }
         throw new RuntimeError(expr.name, "Only instances can have properties");
@@ -170,48 +225,78 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance =  locals.get(expr);
-        LoxClass superClass = (LoxClass) environment.getAt(distance, "super");
-        // current object is always one environment closer than its super
-        LoxInstance object =  (LoxInstance) environment.getAt(distance-1, "this");
-        LoxFunction method = superClass.findMethod(expr.method.lexeme());
-        if(method ==  null) throw new RuntimeError(expr.method, "Undefined property " + expr.method.lexeme());
-        return method.bind(object);
+        // super is the only variable in its frame and this takes slot 0 of the method's
+        LoxClass superClass = (LoxClass) frame.getAt(expr.depth, 0);
+        // current object is always one frame closer than its super
+        LoxInstance object =  (LoxInstance) frame.getAt(expr.depth-1, 0);
+        return superMethod(expr, superClass).bind(object);
+    }
+
+    // what a super expression's lookup came to, one object so fibers running the same method
+    // never see a class from one lookup with the method from another
+    record SuperCache(LoxClass superClass, LoxFunction method){}
+
+    // the method a super expression names, looked up once for each superclass the site sees
+    static LoxFunction superMethod(Expr.Super expr, LoxClass superClass){
+        SuperCache cached = expr.cached;
+        if(cached == null || cached.superClass() != superClass){
+            LoxFunction method = superClass.findMethod(expr.method.symbol());
+            if(method ==  null) throw new RuntimeError(expr.method, "Undefined property " + expr.method.lexeme());
+            cached = new SuperCache(superClass, method);
+            expr.cached = cached;
+        }
+        return cached.method();
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return frame.getAt(expr.depth, 0);
     }
 
     private Object evaluate(Expr expression){
         return expression.accept(this);
     }
 
-    private boolean isTruthy(Object object){
+    static void checkArity(LoxCallable function, int count, Token paren){
+        if(function.arity() != LoxNative.VARIADIC && count != function.arity()){
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments, got "
+                    + count + " instead" );
+        }
+    }
+
+    // a native's error becomes a runtime error at the call
+    static Object callNative(LoxCallable function, Interpreter interpreter, List<Object> arguments, Token paren){
+        try {
+            return function.call(interpreter, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    static boolean isTruthy(Object object){
         if(object == null) return false;
         if(object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b){
+    static boolean isEqual(Object a, Object b){
         if(a == null && b == null) return true;
         if(a == null) return false;
         return a.equals(b);
     }
 
     // error handling checks
-    private void checkNumberOperand(Token operator, Object operand){
+    static void checkNumberOperand(Token operator, Object operand){
         if (operand instanceof Double)return;
         throw new RuntimeError(operator, "Operand must be a number" );
     }
 
-    private void checkNumberOperands(Token operator, Object a, Object b){
+    static void checkNumberOperands(Token operator, Object a, Object b){
         if (a instanceof Double && b instanceof Double)return;
         throw new RuntimeError(operator, "Operands must be numbers" );
     }
 
-    private String stringify(Object object){
+    static String stringify(Object object){
         if (object ==  null)return "nil";
 
         if(object instanceof  Double){
@@ -226,66 +311,73 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // statement logic
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Object visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Object visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        context.out.println(stringify(value));
+        return NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Object visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme(), value);
-        return null;
+        define(stmt.slot, stmt.name, value);
+        return NORMAL;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Object visitBlockStmt(Stmt.Block stmt) {
+        // blocks without declarations run in the enclosing frame
+        if(stmt.frameSize == 0){
+            for(Stmt statement : stmt.statements) {
+                Object completion = execute(statement);
+                if(completion != NORMAL) return completion;
+            }
+            return NORMAL;
+        }
+        return executeBlock(stmt.statements, new Frame(frame, stmt.frameSize));
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Object visitIfStmt(Stmt.If stmt) {
         Object condition = evaluate(stmt.condition);
-        if(isTruthy(condition)) execute(stmt.thenStmt);
-        else if(stmt.elseStmt != null)execute(stmt.elseStmt);
-        return null;
+        if(isTruthy(condition)) return execute(stmt.thenStmt);
+        else if(stmt.elseStmt != null)return execute(stmt.elseStmt);
+        return NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Object visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))){
-            execute(stmt.loop);
+            Object completion = execute(stmt.loop);
+            if(completion != NORMAL) return completion;
         }
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Object visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction loxFunction = new LoxFunction(stmt, this, false);
-        this.environment.define(stmt.name.lexeme(), loxFunction);
-        return null;
+        define(stmt.slot, stmt.name, loxFunction);
+        return NORMAL;
     }
 
     @Override
-    public Void visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
-        Object value = evaluate(stmt.expr);
-        throw new Return(value);
+    public Object visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+        return evaluate(stmt.expr);
     }
 
     @Override
-    public Void visitClassStmtStmt(Stmt.ClassStmt stmt) {
+    public Object visitClassStmtStmt(Stmt.ClassStmt stmt) {
         LoxClass superClass = null;
         if (stmt.superclass !=null){
             Object evaluatedSuperClass = evaluate(stmt.superclass);
@@ -295,42 +387,50 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             superClass = (LoxClass) evaluatedSuperClass;
         }
 
-        environment.define(stmt.name.lexeme(), null);
+        define(stmt.slot, stmt.name, null);
 
         if(stmt.superclass != null){
-            environment = new Environment(environment);
-            environment.define("super", superClass);
+            frame = new Frame(frame, 1);
+            frame.slots[0] = superClass;
         }
 
-        HashMap<String, LoxFunction> methods = new HashMap<>();
+        SymbolMap<LoxFunction> methods = new SymbolMap<>(stmt.methods.size());
         for(Stmt.Function method: stmt.methods){
-           methods.put(method.name.lexeme(), new LoxFunction(method, this, method.name.lexeme().equals("init")));
+           methods.put(method.name.symbol(), new LoxFunction(method, this, method.name.symbol() == Symbols.INIT));
         }
-        LoxClass loxClass = new LoxClass(stmt.name.lexeme(), methods, superClass);
+        LoxClass loxClass = new LoxClass(stmt.name.lexeme(), stmt.name.line(), methods, superClass);
 
         if(stmt.superclass != null){
-            environment = environment.enclosing;
+            frame = frame.enclosing;
         }
 
-        environment.assign(stmt.name, loxClass);
-        return null;
+        if(stmt.slot != -1) frame.slots[stmt.slot] = loxClass;
+        else globals.assign(stmt.name, loxClass);
+        return NORMAL;
     }
 
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private void define(int slot, Token name, Object value){
+        if(slot != -1) frame.slots[slot] = value;
+        else globals.define(name, value);
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment){
-        Environment enclosing = this.environment;
+    private Object execute(Stmt stmt){
+        if(exactProfiler != null) exactProfiler.line(stmt.line);
+        return stmt.accept(this);
+    }
+
+    public Object executeBlock(List<Stmt> statements, Frame frame){
+        Frame enclosing = this.frame;
         try {
-            this.environment = environment;
+            this.frame = frame;
             for(Stmt statement : statements) {
-                execute(statement);
+                Object completion = execute(statement);
+                if(completion != NORMAL) return completion;
             }
+            return NORMAL;
         } finally {
-            this.environment = enclosing;
+            this.frame = enclosing;
         }
-
     }
 
 }
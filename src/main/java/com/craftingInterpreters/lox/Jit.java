@@ -0,0 +1,436 @@
+package com.craftingInterpreters.lox;
+// compiles the body of a hot function declaration into a JVM class so HotSpot
+// optimizes the Lox code itself instead of the visitor running it
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftingInterpreters.lox.JitClassWriter.*;
+
+public class Jit {
+    // calls to a declaration before its body gets compiled
+    static final int THRESHOLD = 1000;
+
+    // hidden classes get a unique suffix appended to this name
+    private static final String CLASS_NAME = "com/craftingInterpreters/lox/JitCode";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String BODY = "com/craftingInterpreters/lox/LoxFunction$Body";
+    private static final String RUNTIME = "com/craftingInterpreters/lox/JitRuntime";
+    private static final String FRAME = "com/craftingInterpreters/lox/Frame";
+    private static final String OBJ = "Ljava/lang/Object;";
+    private static final String TOKEN = "Lcom/craftingInterpreters/lox/Token;";
+    private static final String INSTANCE = "Lcom/craftingInterpreters/lox/LoxInstance;";
+    private static final String SUPER = "Lcom/craftingInterpreters/lox/Expr$Super;";
+    private static final String CACHE = "Lcom/craftingInterpreters/lox/PropertyCache;";
+    private static final String FRAME_DESC = "L" + FRAME + ";";
+    private static final String INTERPRETER_DESC = "Lcom/craftingInterpreters/lox/Interpreter;";
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    // where a failure that points at a bug in the jit gets reported
+    private final PrintStream err;
+    private boolean reported = false;
+
+    Jit(PrintStream err){
+        this.err = err;
+    }
+
+    // returns null when the body can't be compiled, the function then stays interpreted
+    LoxFunction.Body compile(Stmt.Function function){
+        try {
+            MethodCompiler compiler = new MethodCompiler();
+            byte[] bytes = compiler.compile(function);
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+            return (LoxFunction.Body) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                    .invoke(compiler.constants.toArray());
+        } catch (JitClassWriter.TooLarge e) {
+            return null;
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            // a class the jvm rejects or a crash in the compiler, the code still runs interpreted
+            if(!reported){
+                reported = true;
+                err.println("JIT couldn't compile " + function.name.lexeme() + ", running it interpreted: " + e);
+            }
+            return null;
+        }
+    }
+
+    // generates a class implementing LoxFunction.Body, its run method works on the same frames
+    // as the tree walker and returns the function's value with a plain jvm return
+    private static class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        // jvm locals of run: this, interpreter, the function's frame, then frames of nested blocks
+        private static final int INTERPRETER = 1;
+        private static final int FUNCTION_FRAME = 2;
+
+        private final JitClassWriter writer = new JitClassWriter(CLASS_NAME, OBJECT, BODY);
+        private final JitClassWriter.Code code = new JitClassWriter.Code(4);
+        // objects the generated code needs, handed to the constructor
+        final List<Object> constants = new ArrayList<>();
+        private int frame = FUNCTION_FRAME;
+        private int scratch = FUNCTION_FRAME + 1;
+
+        byte[] compile(Stmt.Function function){
+            writer.field(ACC_PRIVATE | ACC_FINAL, "k", "[" + OBJ);
+
+            JitClassWriter.Code init = new JitClassWriter.Code(2);
+            init.load(0);
+            init.op2(INVOKESPECIAL, writer.methodRef(OBJECT, "<init>", "()V"), -1);
+            init.load(0);
+            init.load(1);
+            init.op2(PUTFIELD, writer.fieldRef(CLASS_NAME, "k", "[" + OBJ), -2);
+            init.op(RETURN, 0);
+            writer.method(ACC_PUBLIC, "<init>", "([" + OBJ + ")V", init);
+
+            for(Stmt stmt: function.body){
+                compile(stmt);
+            }
+            code.op(ACONST_NULL, 1);
+            code.op(ARETURN, -1);
+            writer.method(ACC_PUBLIC, "run", "(" + INTERPRETER_DESC + FRAME_DESC + ")" + OBJ, code);
+            return writer.toByteArray();
+        }
+
+        private void compile(Stmt stmt){
+            stmt.accept(this);
+        }
+
+        private void compile(Expr expr){
+            expr.accept(this);
+        }
+
+        private void constant(Object value){
+            int index = constants.indexOf(value);
+            if(index == -1){
+                index = constants.size();
+                constants.add(value);
+            }
+            code.load(0);
+            code.op2(GETFIELD, writer.fieldRef(CLASS_NAME, "k", "[" + OBJ), 0);
+            code.push(index);
+            code.op(AALOAD, -1);
+        }
+
+        private void token(Token token){
+            constant(token);
+            code.op2(CHECKCAST, writer.classRef("com/craftingInterpreters/lox/Token"), 0);
+        }
+
+        private void superNode(Expr.Super expr){
+            constant(expr);
+            code.op2(CHECKCAST, writer.classRef("com/craftingInterpreters/lox/Expr$Super"), 0);
+        }
+
+        private void cache(PropertyCache cache){
+            constant(cache);
+            code.op2(CHECKCAST, writer.classRef("com/craftingInterpreters/lox/PropertyCache"), 0);
+        }
+
+        private void invoke(String name, String descriptor, int arguments, boolean returns){
+            code.op2(INVOKESTATIC, writer.methodRef(RUNTIME, name, descriptor), -arguments + (returns ? 1 : 0));
+        }
+
+        // leaves the slots array of the frame depth levels out on the stack
+        private void slots(int depth){
+            code.load(frame);
+            for(int i = 0; i < depth; i++){
+                code.op2(GETFIELD, writer.fieldRef(FRAME, "enclosing", FRAME_DESC), 0);
+            }
+            code.op2(GETFIELD, writer.fieldRef(FRAME, "slots", "[" + OBJ), 0);
+        }
+
+        private void loadLocal(int depth, int slot){
+            slots(depth);
+            code.push(slot);
+            code.op(AALOAD, -1);
+        }
+
+        // stores the value on top of the stack and leaves it there
+        private void storeLocal(int depth, int slot){
+            code.op(DUP, 1);
+            code.store(scratch);
+            slots(depth);
+            code.push(slot);
+            code.load(scratch);
+            code.op(AASTORE, -3);
+        }
+
+        private void isTruthy(){
+            invoke("isTruthy", "(" + OBJ + ")Z", 1, true);
+        }
+
+        // expressions
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            compile(expr.value);
+            if(expr.slot != -1){
+                storeLocal(expr.depth, expr.slot);
+            } else {
+                code.load(INTERPRETER);
+                token(expr.name);
+                invoke("assignGlobal", "(" + OBJ + INTERPRETER_DESC + TOKEN + ")" + OBJ, 3, true);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            // right operand first like the tree walker, then swap into left, right order
+            compile(expr.right);
+            compile(expr.left);
+            code.op(SWAP, 0);
+            String helper = switch (expr.operator.type()){
+                case TokenType.PLUS -> "add";
+                case TokenType.MINUS -> "subtract";
+                case TokenType.STAR -> "multiply";
+                case TokenType.SLASH -> "divide";
+                case TokenType.GREATER -> "greater";
+                case TokenType.GREATER_EQUAL -> "greaterEqual";
+                case TokenType.LESS -> "less";
+                case TokenType.LESS_EQUAL -> "lessEqual";
+                case TokenType.BANG_EQUAL -> "notEqual";
+                case TokenType.EQUAL_EQUAL -> "equal";
+                default -> throw new IllegalStateException("Unknown operator " + expr.operator.lexeme());
+            };
+            token(expr.operator);
+            invoke(helper, "(" + OBJ + OBJ + TOKEN + ")" + OBJ, 3, true);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            compile(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if(expr.value == null) code.op(ACONST_NULL, 1);
+            else if(expr.value instanceof String string) code.op2(LDC_W, writer.string(string), 1);
+            else constant(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            compile(expr.right);
+            if(expr.operator.type() == TokenType.BANG){
+                invoke("not", "(" + OBJ + ")" + OBJ, 1, true);
+            } else {
+                token(expr.operator);
+                invoke("negate", "(" + OBJ + TOKEN + ")" + OBJ, 2, true);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVarExpr(Expr.Var expr) {
+            if(expr.slot != -1){
+                loadLocal(expr.depth, expr.slot);
+            } else {
+                code.load(INTERPRETER);
+                token(expr.name);
+                invoke("getGlobal", "(" + INTERPRETER_DESC + TOKEN + ")" + OBJ, 2, true);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            compile(expr.left);
+            code.op(DUP, 1);
+            isTruthy();
+            int end = code.jump(expr.operator.type() == TokenType.AND ? IFEQ : IFNE, -1);
+            code.op(POP, -1);
+            compile(expr.right);
+            code.patch(end);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            // method calls leave the receiver under the unbound method instead of binding it
+            boolean method = true;
+            if(expr.callee instanceof Expr.GetExpression get){
+                compile(get.object);
+                token(get.name);
+                invoke("checkInstance", "(" + OBJ + TOKEN + ")" + INSTANCE, 2, true);
+                code.op(DUP, 1);
+                token(get.name);
+                cache(get.cache);
+                code.load(INTERPRETER);
+                invoke("lookup", "(" + INSTANCE + TOKEN + CACHE + INTERPRETER_DESC + ")" + OBJ, 4, true);
+            } else if(expr.callee instanceof Expr.Super superExpr){
+                loadLocal(superExpr.depth - 1, 0);
+                code.load(frame);
+                code.push(superExpr.depth);
+                superNode(superExpr);
+                invoke("superMethod", "(" + FRAME_DESC + "I" + SUPER + ")" + OBJ, 3, true);
+            } else {
+                method = false;
+                compile(expr.callee);
+            }
+            code.push(expr.arguments.size());
+            code.op2(ANEWARRAY, writer.classRef(OBJECT), 0);
+            for(int i = 0; i < expr.arguments.size(); i++){
+                code.op(DUP, 1);
+                code.push(i);
+                compile(expr.arguments.get(i));
+                code.op(AASTORE, -3);
+            }
+            code.load(INTERPRETER);
+            token(expr.paren);
+            if(method) invoke("invokeMethod", "(" + OBJ + OBJ + "[" + OBJ + INTERPRETER_DESC + TOKEN + ")" + OBJ, 5, true);
+            else invoke("call", "(" + OBJ + "[" + OBJ + INTERPRETER_DESC + TOKEN + ")" + OBJ, 4, true);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpressionExpr(Expr.GetExpression expr) {
+            compile(expr.object);
+            token(expr.name);
+            cache(expr.cache);
+            code.load(INTERPRETER);
+            invoke("getProperty", "(" + OBJ + TOKEN + CACHE + INTERPRETER_DESC + ")" + OBJ, 4, true);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpressionExpr(Expr.SetExpression expr) {
+            compile(expr.object);
+            token(expr.name);
+            invoke("checkInstance", "(" + OBJ + TOKEN + ")" + INSTANCE, 2, true);
+            compile(expr.value);
+            token(expr.name);
+            cache(expr.cache);
+            code.load(INTERPRETER);
+            invoke("setProperty", "(" + INSTANCE + OBJ + TOKEN + CACHE + INTERPRETER_DESC + ")" + OBJ, 5, true);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            code.load(frame);
+            code.push(expr.depth);
+            superNode(expr);
+            invoke("getSuper", "(" + FRAME_DESC + "I" + SUPER + ")" + OBJ, 3, true);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            loadLocal(expr.depth, 0);
+            return null;
+        }
+
+        // statements
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            compile(stmt.expression);
+            code.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            compile(stmt.expression);
+            code.load(INTERPRETER);
+            invoke("print", "(" + OBJ + INTERPRETER_DESC + ")V", 2, false);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if(stmt.initializer != null) compile(stmt.initializer);
+            else code.op(ACONST_NULL, 1);
+            storeLocal(0, stmt.slot);
+            code.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            // blocks without declarations run in the enclosing frame
+            if(stmt.frameSize == 0){
+                for(Stmt statement: stmt.statements){
+                    compile(statement);
+                }
+                return null;
+            }
+            int enclosing = frame;
+            int local = scratch;
+            code.op2(NEW, writer.classRef(FRAME), 1);
+            code.op(DUP, 1);
+            code.load(frame);
+            code.push(stmt.frameSize);
+            code.op2(INVOKESPECIAL, writer.methodRef(FRAME, "<init>", "(" + FRAME_DESC + "I)V"), -3);
+            code.store(local);
+            frame = local;
+            scratch = local + 1;
+            for(Stmt statement: stmt.statements){
+                compile(statement);
+            }
+            frame = enclosing;
+            scratch = local;
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            compile(stmt.condition);
+            isTruthy();
+            int elseJump = code.jump(IFEQ, -1);
+            compile(stmt.thenStmt);
+            int endJump = code.jump(GOTO, 0);
+            code.patch(elseJump);
+            if(stmt.elseStmt != null) compile(stmt.elseStmt);
+            code.patch(endJump);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            int loopStart = code.position();
+            compile(stmt.condition);
+            isTruthy();
+            int exitJump = code.jump(IFEQ, -1);
+            compile(stmt.loop);
+            code.jumpBack(GOTO, loopStart, 0);
+            code.patch(exitJump);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            code.load(INTERPRETER);
+            constant(stmt);
+            code.op2(CHECKCAST, writer.classRef("com/craftingInterpreters/lox/Stmt$Function"), 0);
+            code.load(frame);
+            invoke("makeFunction", "(" + INTERPRETER_DESC + "Lcom/craftingInterpreters/lox/Stmt$Function;" + FRAME_DESC + ")"
+                    + "Lcom/craftingInterpreters/lox/LoxFunction;", 3, true);
+            storeLocal(0, stmt.slot);
+            code.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+            compile(stmt.expr);
+            code.op(ARETURN, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmtStmt(Stmt.ClassStmt stmt) {
+            code.load(INTERPRETER);
+            constant(stmt);
+            code.op2(CHECKCAST, writer.classRef("com/craftingInterpreters/lox/Stmt"), 0);
+            code.load(frame);
+            invoke("execute", "(" + INTERPRETER_DESC + "Lcom/craftingInterpreters/lox/Stmt;" + FRAME_DESC + ")V", 3, false);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.craftingInterpreters.lox;
+// just enough of the class file format to emit one class with a field and a couple of methods
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+class JitClassWriter {
+    // class files from before Java 6 are checked by the type inferring verifier,
+    // so the generated methods don't need stack map frames
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // opcodes used by the jit
+    static final int ACONST_NULL = 0x01, SIPUSH = 0x11, LDC_W = 0x13, ALOAD = 0x19, AALOAD = 0x32;
+    static final int ASTORE = 0x3a, AASTORE = 0x53, POP = 0x57, DUP = 0x59, SWAP = 0x5f;
+    static final int IFEQ = 0x99, IFNE = 0x9a, GOTO = 0xa7, ARETURN = 0xb0, RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2, GETFIELD = 0xb4, PUTFIELD = 0xb5;
+    static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, NEW = 0xbb, ANEWARRAY = 0xbd, CHECKCAST = 0xc0;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // thrown when a body doesn't fit in a class file's limits, the function then stays interpreted
+    static class TooLarge extends RuntimeException {
+        TooLarge(String message){
+            super(message);
+        }
+    }
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    JitClassWriter(String name, String superName, String... interfaces){
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    // constant pool, entries are shared by key
+    private int entry(String key, int tag, byte[] payload){
+        Integer existing = poolIndex.get(key);
+        if(existing != null) return existing;
+        if(poolCount > 0xFFFF) throw new TooLarge("Constant pool too big");
+        try {
+            pool.writeByte(tag);
+            pool.write(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private static byte[] u2u2(int a, int b){
+        return new byte[]{(byte) (a >> 8), (byte) a, (byte) (b >> 8), (byte) b};
+    }
+
+    int utf8(String value){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(bytes).writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return entry("U" + value, 1, bytes.toByteArray());
+    }
+
+    int classRef(String internalName){
+        int index = utf8(internalName);
+        return entry("C" + internalName, 7, new byte[]{(byte) (index >> 8), (byte) index});
+    }
+
+    int string(String value){
+        int index = utf8(value);
+        return entry("S" + value, 8, new byte[]{(byte) (index >> 8), (byte) index});
+    }
+
+    private int nameAndType(String name, String descriptor){
+        return entry("N" + name + ":" + descriptor, 12, u2u2(utf8(name), utf8(descriptor)));
+    }
+
+    int fieldRef(String owner, String name, String descriptor){
+        return entry("F" + owner + "." + name + ":" + descriptor, 9, u2u2(classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    int methodRef(String owner, String name, String descriptor){
+        return entry("M" + owner + "." + name + descriptor, 10, u2u2(classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    void field(int access, String name, String descriptor){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    void method(int access, String name, String descriptor, Code code){
+        if(code.length > 0xFFFF) throw new TooLarge("Method too long");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(code.length);
+            out.write(code.bytes, 0, code.length);
+            // no exception table, no attributes
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray(){
+        int thisIndex = classRef(name);
+        int superIndex = classRef(superName);
+        int[] interfaceIndexes = new int[interfaces.length];
+        for(int i = 0; i < interfaces.length; i++) interfaceIndexes[i] = classRef(interfaces[i]);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndexes.length);
+            for(int index: interfaceIndexes) out.writeShort(index);
+            out.writeShort(fields.size());
+            for(byte[] field: fields) out.write(field);
+            out.writeShort(methods.size());
+            for(byte[] method: methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // a method body, tracks the operand stack depth as instructions go in
+    static class Code {
+        private byte[] bytes = new byte[256];
+        int length = 0;
+        private int stack = 0;
+        int maxStack = 0;
+        int maxLocals;
+
+        Code(int maxLocals){
+            this.maxLocals = maxLocals;
+        }
+
+        private void put(int value){
+            if(length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) value;
+        }
+
+        private void adjust(int stackDelta){
+            stack += stackDelta;
+            if(stack > maxStack) maxStack = stack;
+        }
+
+        void op(int opcode, int stackDelta){
+            put(opcode);
+            adjust(stackDelta);
+        }
+
+        void op1(int opcode, int operand, int stackDelta){
+            put(opcode);
+            put(operand);
+            adjust(stackDelta);
+        }
+
+        void op2(int opcode, int operand, int stackDelta){
+            put(opcode);
+            put(operand >> 8);
+            put(operand);
+            adjust(stackDelta);
+        }
+
+        void load(int local){
+            if(local > 0xFF) throw new TooLarge("Too many locals");
+            op1(ALOAD, local, 1);
+        }
+
+        void store(int local){
+            if(local > 0xFF) throw new TooLarge("Too many locals");
+            if(local >= maxLocals) maxLocals = local + 1;
+            op1(ASTORE, local, -1);
+        }
+
+        void push(int value){
+            if(value > Short.MAX_VALUE) throw new TooLarge("Constant index too big");
+            op2(SIPUSH, value, 1);
+        }
+
+        int position(){
+            return length;
+        }
+
+        // emits a branch with its target left blank, returns the spot to patch
+        int jump(int opcode, int stackDelta){
+            int at = length;
+            op2(opcode, 0, stackDelta);
+            return at;
+        }
+
+        void patch(int at){
+            branchOffset(at, length);
+        }
+
+        void jumpBack(int opcode, int target, int stackDelta){
+            int at = jump(opcode, stackDelta);
+            branchOffset(at, target);
+        }
+
+        private void branchOffset(int at, int target){
+            int offset = target - at;
+            if(offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) throw new TooLarge("Branch too far");
+            bytes[at + 1] = (byte) (offset >> 8);
+            bytes[at + 2] = (byte) offset;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.craftingInterpreters.lox;
+// operations the jit compiled code calls into, small enough for HotSpot to inline at the call site
+
+import java.util.Arrays;
+
+final class JitRuntime {
+    private JitRuntime(){
+    }
+
+    static Object getGlobal(Interpreter interpreter, Token name){
+        return interpreter.globals.get(name);
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, Token name){
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    static Object add(Object left, Object right, Token operator){
+        if (left instanceof String && right instanceof String) return (String)left + (String)right;
+        if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings" );
+    }
+
+    static Object subtract(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left / (double)right;
+    }
+
+    static Object greater(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator){
+        Interpreter.checkNumberOperands(operator, right, left);
+        return (double)left <= (double)right;
+    }
+
+    static Object equal(Object left, Object right, Token operator){
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right, Token operator){
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object negate(Object right, Token operator){
+        Interpreter.checkNumberOperand(operator, right);
+        return -(double) right;
+    }
+
+    static Object not(Object right){
+        return !Interpreter.isTruthy(right);
+    }
+
+    static boolean isTruthy(Object value){
+        return Interpreter.isTruthy(value);
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren){
+        if(!(callee instanceof LoxCallable function))throw new RuntimeError(paren, "Expression is not callable, only functions and classes are callable");
+        Interpreter.checkArity(function, arguments.length, paren);
+        return Interpreter.callNative(function, interpreter, Arrays.asList(arguments), paren);
+    }
+
+    // a method call's receiver is passed in here, the callee is an unbound method unless it came out of a field
+    static Object invokeMethod(Object receiver, Object callee, Object[] arguments, Interpreter interpreter, Token paren){
+        if(!(callee instanceof LoxCallable function))throw new RuntimeError(paren, "Expression is not callable, only functions and classes are callable");
+        Interpreter.checkArity(function, arguments.length, paren);
+        if(function instanceof LoxFunction method) return method.invoke(interpreter, (LoxInstance) receiver, Arrays.asList(arguments));
+        return Interpreter.callNative(function, interpreter, Arrays.asList(arguments), paren);
+    }
+
+    static Object lookup(LoxInstance instance, Token name, PropertyCache cache, Interpreter interpreter){
+        return cache.lookup(instance, name, interpreter.globals);
+    }
+
+    static Object superMethod(Frame frame, int depth, Expr.Super expr){
+        return Interpreter.superMethod(expr, (LoxClass) frame.getAt(depth, 0));
+    }
+
+    static Object getProperty(Object object, Token name, PropertyCache cache, Interpreter interpreter){
+        if(object instanceof LoxInstance instance) return cache.get(instance, name, interpreter.globals);
+        throw new RuntimeError(name, "Only instances can have properties");
+    }
+
+    static LoxInstance checkInstance(Object object, Token name){
+        if(object instanceof LoxInstance instance) return instance;
+        throw new RuntimeError(name, "Only instances can have properties");
+    }
+
+    static Object setProperty(LoxInstance instance, Object value, Token name, PropertyCache cache, Interpreter interpreter){
+        cache.set(instance, name, value, interpreter.globals);
+        return value;
+    }
+
+    static Object getSuper(Frame frame, int depth, Expr.Super expr){
+        LoxClass superClass = (LoxClass) frame.getAt(depth, 0);
+        // current object is always one frame closer than its super
+        LoxInstance object = (LoxInstance) frame.getAt(depth - 1, 0);
+        return Interpreter.superMethod(expr, superClass).bind(object);
+    }
+
+    static void print(Object value, Interpreter interpreter){
+        interpreter.context.out.println(Interpreter.stringify(value));
+    }
+
+    // nested functions start out interpreted and get compiled on their own once hot
+    static LoxFunction makeFunction(Interpreter interpreter, Stmt.Function stmt, Frame frame){
+        Frame enclosing = interpreter.frame;
+        try {
+            interpreter.frame = frame;
+            return new LoxFunction(stmt, interpreter, false);
+        } finally {
+            interpreter.frame = enclosing;
+        }
+    }
+
+    // statements the jit leaves to the tree walker, run against the compiled code's frame
+    static void execute(Interpreter interpreter, Stmt stmt, Frame frame){
+        Frame enclosing = interpreter.frame;
+        try {
+            interpreter.frame = frame;
+            stmt.accept(interpreter);
+        } finally {
+            interpreter.frame = enclosing;
+        }
+    }
+}
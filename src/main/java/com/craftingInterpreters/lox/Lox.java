@@ -1,28 +1,209 @@
 package com.craftingInterpreters.lox;
+// the command line: options go into an engine, and the script, prelude and REPL all run in one
+// context made from it
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.function.Function;
 
 public class Lox {
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    private static final LoxEngine engine = new LoxEngine();
+    static LoxContext context;
+    private static boolean memoStats = false;
+    // where resolved scripts are cached, .loxcache next to the script unless --cache-dir says otherwise
+    private static boolean useCache = true;
+    private static Path cacheDirectory;
+    // a script run before the main one, or an image of the globals it left behind
+    private static String prelude;
+    private static String image;
+    private static String writeImage;
+    // where --profile writes collapsed stacks, and how often it samples
+    private static String profile;
+    private static long profileInterval = 1000;
+    // --exact-profile prints its report when the script ends, or writes it as JSON to a file
+    private static boolean exactProfile = false;
+    private static String exactProfileFile;
+    // set by --bench, which runs a benchmark directory instead of a script
+    private static Bench bench;
 
     public static void main(String[] args) throws IOException{
-            if(args.length>1){
-                System.out.println("Usage: jLox [script]");
+            List<String> scripts = new ArrayList<>();
+            boolean memoSizeGiven = false;
+            for(String arg: args){
+                if(arg.startsWith("--backend=")){
+                    engine.backend(parseBackend(arg.substring("--backend=".length())));
+                } else if(arg.startsWith("--optimize=")){
+                    engine.optimizations(parsePasses(arg.substring("--optimize=".length())));
+                } else if(arg.startsWith("--max-depth=")){
+                    engine.maxDepth(parseDepth(arg.substring("--max-depth=".length())));
+                } else if(arg.startsWith("--memo-size=")){
+                    engine.memoSize(parseCount(arg.substring("--memo-size=".length())));
+                    memoSizeGiven = true;
+                } else if(arg.startsWith("--cache-dir=")){
+                    cacheDirectory = Paths.get(arg.substring("--cache-dir=".length()));
+                } else if(arg.startsWith("--prelude=")){
+                    prelude = arg.substring("--prelude=".length());
+                } else if(arg.startsWith("--image=")){
+                    image = arg.substring("--image=".length());
+                } else if(arg.startsWith("--write-image=")){
+                    writeImage = arg.substring("--write-image=".length());
+                } else if(arg.equals("--bench") || arg.startsWith("--bench=")){
+                    bench().directory = Paths.get(arg.equals("--bench") ? "benchmark" : arg.substring("--bench=".length()));
+                } else if(arg.startsWith("--runs=")){
+                    bench().runs = parseDepth(arg.substring("--runs=".length()));
+                } else if(arg.startsWith("--warmup=")){
+                    bench().warmup = parseCount(arg.substring("--warmup=".length()));
+                } else if(arg.startsWith("--baseline=")){
+                    bench().baseline = Paths.get(arg.substring("--baseline=".length()));
+                } else if(arg.startsWith("--save-baseline=")){
+                    bench().saveBaseline = Paths.get(arg.substring("--save-baseline=".length()));
+                } else if(arg.startsWith("--threshold=")){
+                    bench().threshold = parseCount(arg.substring("--threshold=".length()));
+                } else if(arg.equals("--profile") || arg.startsWith("--profile=")){
+                    profile = arg.equals("--profile") ? "profile.folded" : arg.substring("--profile=".length());
+                } else if(arg.equals("--exact-profile") || arg.startsWith("--exact-profile=")){
+                    exactProfile = true;
+                    if(!arg.equals("--exact-profile")) exactProfileFile = arg.substring("--exact-profile=".length());
+                } else if(arg.startsWith("--profile-interval=")){
+                    profileInterval = parseDepth(arg.substring("--profile-interval=".length()));
+                } else if(arg.equals("--no-cache")){
+                    useCache = false;
+                } else if(arg.equals("--memo-stats")){
+                    memoStats = true;
+                } else if(arg.equals("--jit")){
+                    engine.jit(true);
+                } else {
+                    scripts.add(arg);
+                }
+            }
+            if(scripts.size()>1 || (writeImage != null && prelude == null)){
+                usage();
+            }
+            // a benchmark times the calls themselves, fib would mostly time the memo table
+            if(bench != null && !memoSizeGiven) engine.memoSize(0);
+            context = engine.newContext();
+            Interpreter interpreter = context.interpreter;
+            if(profile != null){
+                if(engine.backend == LoxEngine.Backend.VM){
+                    System.err.println("Profiling needs the tree or closure backend.");
+                    System.exit(64);
+                }
+                interpreter.profiler = new Profiler(profileInterval);
+                // written however the run ends, System.exit included
+                Runtime.getRuntime().addShutdownHook(new Thread(Lox::writeProfile));
+            }
+            if(exactProfile){
+                // compiled code doesn't go through the statements, so it can't count them
+                if(engine.backend == LoxEngine.Backend.VM || engine.jit){
+                    System.err.println("Exact profiling needs the tree or closure backend without --jit.");
+                    System.exit(64);
+                }
+                interpreter.exactProfiler = new ExactProfiler();
+            }
+            if(bench != null){
+                if(!scripts.isEmpty()) usage();
+                System.exit(bench.run());
+            }
+            if(engine.backend == LoxEngine.Backend.VM && (image != null || writeImage != null)){
+                System.err.println("Images need the tree or closure backend.");
                 System.exit(64);
-            } else if(args.length == 1){
-                runFile(args[0]);
-            } else {
+            }
+            if(image != null){
+                loadImage(image);
+            } else if(prelude != null){
+                runPrelude(prelude);
+            }
+            if(scripts.size() == 1){
+                runFile(scripts.get(0));
+            } else if(writeImage == null){
                 runPrompt();
             }
     }
 
+    private static void writeProfile(){
+        Profiler profiler = context.interpreter.profiler;
+        profiler.stop();
+        try(Writer out = Files.newBufferedWriter(Paths.get(profile))){
+            profiler.write(out);
+        } catch (IOException error) {
+            System.err.println("Can't write profile " + profile + ": " + error.getMessage());
+        }
+    }
+
+    private static void writeExactProfile(){
+        ExactProfiler profiler = context.interpreter.exactProfiler;
+        if(exactProfileFile == null){
+            profiler.report(System.err);
+            return;
+        }
+        try(Writer out = Files.newBufferedWriter(Paths.get(exactProfileFile))){
+            profiler.writeJson(out);
+        } catch (IOException error) {
+            System.err.println("Can't write profile " + exactProfileFile + ": " + error.getMessage());
+        }
+    }
+
+    private static Bench bench(){
+        if(bench == null) bench = new Bench();
+        return bench;
+    }
+
+    private static LoxEngine.Backend parseBackend(String name){
+        for(LoxEngine.Backend candidate: LoxEngine.Backend.values()){
+            if(candidate.name().equalsIgnoreCase(name)) return candidate;
+        }
+        usage();
+        return null;
+    }
+
+    private static int parseDepth(String value){
+        int depth = parseCount(value);
+        if(depth == 0) usage();
+        return depth;
+    }
+
+    private static int parseCount(String value){
+        try {
+            int count = Integer.parseInt(value);
+            if(count >= 0) return count;
+        } catch (NumberFormatException ignored) {
+        }
+        usage();
+        return 0;
+    }
+
+    // comma separated pass names, or all or none
+    private static EnumSet<Optimizer.Pass> parsePasses(String names){
+        if(names.equalsIgnoreCase("all")) return EnumSet.allOf(Optimizer.Pass.class);
+        EnumSet<Optimizer.Pass> passes = EnumSet.noneOf(Optimizer.Pass.class);
+        if(names.equalsIgnoreCase("none")) return passes;
+        for(String name: names.split(",")){
+            Optimizer.Pass pass = null;
+            for(Optimizer.Pass candidate: Optimizer.Pass.values()){
+                if(candidate.name().equalsIgnoreCase(name.trim())) pass = candidate;
+            }
+            if(pass == null) usage();
+            passes.add(pass);
+        }
+        return passes;
+    }
+
+    private static void usage(){
+        System.out.println("Usage: jLox [--backend=tree|closure|vm] [--jit] [--optimize=all|none|fold,branches,blocks,pure,propagate] [--max-depth=n] [--memo-size=n] [--memo-stats] [--cache-dir=dir] [--no-cache] [--prelude=file] [--write-image=file] [--image=file] [--profile[=file]] [--profile-interval=micros] [--exact-profile[=file]] [--bench[=dir] [--warmup=n] [--runs=n] [--baseline=file] [--save-baseline=file] [--threshold=percent]] [script]");
+        System.exit(64);
+    }
+
     public static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -31,61 +212,87 @@ public class Lox {
             System.out.print(">> ");
             String line = reader.readLine();
             if(line == null) break;
-            run(line);
-            hadError = false;
+            context.run(line);
         }
     }
 
     public static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes((Paths.get(path)));
-
-        run(new String(bytes, Charset.defaultCharset()));
-        // kill on error
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+        List<Stmt> statements = load(path);
+        if(statements != null) context.execute(statements);
+        exit();
     }
 
-    public static void run(String source){
-        // scan
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        // parse
-        Parser parser =  new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if(hadError) return;
-
-        // resolve pass
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        if(hadError) return;
-
-        interpreter.interpret(statements);
+    // runs the prelude like a script, then writes the image of its globals if one was asked for
+    private static void runPrelude(String path) throws IOException {
+        List<Stmt> statements = load(path);
+        if(statements != null){
+            statements = context.prepare(statements);
+            context.interpret(statements);
+        }
+        if(context.hadError || context.hadRuntimeError) exit();
+        if(writeImage != null){
+            // the image is written without memo tables, the functions get empty ones when it is loaded
+            try {
+                Files.write(Paths.get(writeImage), new ImageWriter().write(context.interpreter, statements));
+            } catch (IllegalStateException error) {
+                // fibers and channels are running things, not values an image can hold
+                System.err.println("Can't write image " + writeImage + ": " + error.getMessage());
+                System.exit(65);
+            }
+        }
     }
 
-    static void error(int line, String message){
-        report(line, "", message);
+    private static void loadImage(String path) throws IOException {
+        Interpreter interpreter = context.interpreter;
+        Function<Stmt.Function, LoxFunction.Body> compile = engine.backend == LoxEngine.Backend.CLOSURE
+                ? new ClosureCompiler(interpreter)::compileBody
+                : LoxFunction::treeBody;
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            ImageReader reader = new ImageReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), interpreter, compile);
+            reader.load();
+            context.memoize(reader.program);
+        } catch (RuntimeException error) {
+            System.err.println("Can't load image " + path + ": " + error.getMessage());
+            System.exit(65);
+        }
     }
 
-    static void error(Token token, String message){
-        if(token.type() == TokenType.EOF){
-             report(token.line(), " at end", message);
-        }else{
-             report(token.line(), " at '" + token.lexeme() + "'", message);
+    // the resolved program in a file, from the cache when it has one, null when it has errors
+    private static List<Stmt> load(String path) throws IOException {
+        // mapped rather than read, the scanner pulls from the mapping as the parser goes
+        MappedByteBuffer source;
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         }
-    }
 
-    private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+        if(!useCache) return context.frontEnd(new Scanner(source, context));
+        Path directory = cacheDirectory != null ? cacheDirectory : Paths.get(path).toAbsolutePath().getParent().resolve(".loxcache");
+        AstCache cache = new AstCache(directory);
+        Path entry = cache.entry(source);
+        List<Stmt> statements = cache.load(entry);
+        if(statements == null){
+            statements = context.frontEnd(new Scanner(source, context));
+            if(statements != null) cache.store(entry, statements);
+        }
+        return statements;
     }
 
-    static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line() + "]");
-        hadRuntimeError = true;
+    private static void exit(){
+        if(context.interpreter.exactProfiler != null) writeExactProfile();
+        if(memoStats){
+            for(Memo memo: context.memos) System.err.println(memo);
+        }
+        // kill on error
+        if(context.hadError) System.exit(65);
+        if(context.hadRuntimeError) System.exit(70);
+    }
 
+    // a fresh context with the same options printing to out, the profilers carry over, for another
+    // run in this process
+    static void reset(PrintStream out){
+        Interpreter previous = context.interpreter;
+        context = engine.newContext(out, System.err);
+        context.interpreter.profiler = previous.profiler;
+        context.interpreter.exactProfiler = previous.exactProfiler;
     }
-}
\ No newline at end of file
+}
@@ -1,17 +1,28 @@
 package com.craftingInterpreters.lox;
 
-import java.util.HashMap;
 import java.util.List;
 
 public class LoxClass implements LoxCallable {
     final String name;
-    final HashMap<String, LoxFunction> methods;
+    // line the class was declared on
+    final int line;
+    final SymbolMap<LoxFunction> methods;
     final LoxClass superClass;
+    // own and inherited methods in one table, built when the class is made
+    private final SymbolMap<LoxFunction> methodTable = new SymbolMap<>();
+    final LoxFunction initializer;
+    // every instance starts out with this shape and room for as many fields as earlier ones grew to
+    final Shape rootShape = new Shape(this);
+    int fieldCapacity = 0;
 
-    LoxClass(String name, HashMap<String, LoxFunction> methods, LoxClass superClass){
+    LoxClass(String name, int line, SymbolMap<LoxFunction> methods, LoxClass superClass){
         this.name = name;
+        this.line = line;
         this.methods = methods;
         this.superClass = superClass;
+        if(superClass != null) methodTable.putAll(superClass.methodTable);
+        methodTable.putAll(methods);
+        this.initializer = methodTable.get(Symbols.INIT);
     }
 
     @Override
@@ -21,28 +32,47 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        ExactProfiler exactProfiler = interpreter.exactProfiler;
+        if(exactProfiler == null) return recorded(interpreter, arguments);
+        exactProfiler.enter(this);
+        try {
+            return recorded(interpreter, arguments);
+        } finally {
+            exactProfiler.exit();
+        }
+    }
+
+    private Object recorded(Interpreter interpreter, List<Object> arguments){
+        if(!Events.recording()) return construct(interpreter, arguments);
+        InstantiationEvent event = new InstantiationEvent();
+        event.begin();
+        try {
+            return construct(interpreter, arguments);
+        } finally {
+            event.end();
+            if(event.shouldCommit()){
+                event.className = name;
+                event.declarationLine = line;
+                event.commit();
+            }
+        }
+    }
+
+    private Object construct(Interpreter interpreter, List<Object> arguments){
         LoxInstance loxInstance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if(initializer != null){
-            initializer.bind(loxInstance).call(interpreter, arguments);
+            initializer.invoke(interpreter, loxInstance, arguments);
         }
         return loxInstance;
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if(initializer == null)return 0;
         return initializer.arity();
     }
 
-    LoxFunction findMethod(String name){
-        if(this.methods.containsKey(name)){
-            return this.methods.get(name);
-        }
-        if(this.superClass != null){
-            return this.superClass.findMethod(name);
-        }
-        return null;
+    LoxFunction findMethod(int symbol){
+        return methodTable.get(symbol);
     }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.craftingInterpreters.lox;
+// one isolated lox world: its own globals, error state, output and memo tables, and the trees
+// it resolves are its own too since every run scans its source afresh. a context belongs to
+// one thread at a time, separate contexts share nothing but interned names and can run at once
+
+import com.craftingInterpreters.lox.vm.Compiler;
+import com.craftingInterpreters.lox.vm.VM;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+public final class LoxContext {
+    // how a run ended
+    public enum Result{
+        OK,
+        COMPILE_ERROR,
+        RUNTIME_ERROR
+    }
+
+    final PrintStream out;
+    final PrintStream err;
+    final LoxEngine.Backend backend;
+    private final EnumSet<Optimizer.Pass> optimizations;
+    final int memoSize;
+    private final int maxDepth;
+    final Interpreter interpreter;
+    // created on first use, keeps its globals between runs like the interpreter does
+    private VM vm;
+    final List<Memo> memos = new ArrayList<>();
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    LoxContext(LoxEngine engine, PrintStream out, PrintStream err){
+        this.out = out;
+        this.err = err;
+        this.backend = engine.backend;
+        this.optimizations = EnumSet.copyOf(engine.optimizations);
+        this.memoSize = engine.memoSize;
+        this.maxDepth = engine.maxDepth;
+        interpreter = new Interpreter(this);
+        interpreter.maxDepth = maxDepth;
+        if(engine.jit && backend != LoxEngine.Backend.VM) interpreter.jit = new Jit(err);
+    }
+
+    // runs source against this context's globals, what earlier runs defined is still there
+    public Result run(String source){
+        hadError = false;
+        hadRuntimeError = false;
+        List<Stmt> statements = frontEnd(new Scanner(source, this));
+        if(statements != null) execute(statements);
+        if(hadError) return Result.COMPILE_ERROR;
+        if(hadRuntimeError) return Result.RUNTIME_ERROR;
+        return Result.OK;
+    }
+
+    public PrintStream out(){
+        return out;
+    }
+
+    // the resolved program, null when it has errors
+    List<Stmt> frontEnd(Scanner scanner){
+        boolean recording = Events.recording();
+
+        // scan and parse, the parser asks the scanner for each token as it goes
+        ParseEvent parse = recording ? new ParseEvent() : null;
+        if(parse != null) parse.begin();
+        Parser parser =  new Parser(scanner);
+        List<Stmt> statements = parser.parse();
+        if(parse != null){
+            parse.end();
+            if(parse.shouldCommit()){
+                parse.statements = statements == null ? 0 : statements.size();
+                parse.commit();
+            }
+        }
+
+        if(hadError) return null;
+
+        // resolve pass
+        ResolveEvent resolve = recording ? new ResolveEvent() : null;
+        if(resolve != null) resolve.begin();
+        Resolver resolver = new Resolver(this);
+        resolver.resolve(statements);
+        if(resolve != null){
+            resolve.end();
+            if(resolve.shouldCommit()){
+                resolve.statements = statements.size();
+                resolve.commit();
+            }
+        }
+
+        if(hadError) return null;
+        return statements;
+    }
+
+    void execute(List<Stmt> statements){
+        interpret(prepare(statements));
+    }
+
+    // the tree the backends run
+    List<Stmt> prepare(List<Stmt> statements){
+        // optimize pass
+        statements = new Optimizer(optimizations).optimize(statements);
+        memoize(statements);
+        return statements;
+    }
+
+    // memoizes the pure functions a program declares, the vm has functions of its own. also run on
+    // a loaded image's program, so its functions get memos like the prelude's did. the memos are
+    // only good for the globals as they are now, a function replaced before the first call turns
+    // them off too. stale ones from earlier runs are let go, a long lived context would keep them all
+    void memoize(List<Stmt> statements){
+        memos.removeIf(memo -> memo.isStale(interpreter.globals));
+        if(memoSize > 0 && backend != LoxEngine.Backend.VM){
+            memos.addAll(new Purity().analyze(statements, memoSize, interpreter.globals.callableVersion));
+        }
+    }
+
+    void interpret(List<Stmt> statements){
+        if(!Events.recording()){
+            runBackend(statements);
+            return;
+        }
+        InterpretEvent event = new InterpretEvent();
+        event.begin();
+        try {
+            runBackend(statements);
+        } finally {
+            event.end();
+            if(event.shouldCommit()){
+                event.backend = backend.name().toLowerCase();
+                event.commit();
+            }
+        }
+    }
+
+    private void runBackend(List<Stmt> statements){
+        switch (backend){
+            case TREE -> interpreter.interpret(statements);
+            case CLOSURE -> new ClosureCompiler(interpreter).interpret(statements);
+            case VM -> {
+                var script = new Compiler(this).compile(statements);
+                if(hadError) return;
+                if(vm == null) vm = new VM(this, maxDepth);
+                vm.interpret(script);
+            }
+        }
+    }
+
+    public void error(int line, String message){
+        report(line, "", message);
+    }
+
+    public void error(Token token, String message){
+        if(token.type() == TokenType.EOF){
+             report(token.line(), " at end", message);
+        }else{
+             report(token.line(), " at '" + token.lexeme() + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        err.println(
+                "[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+
+    void runtimeError(RuntimeError error){
+        runtimeError(error.getMessage(), error.token.line());
+    }
+
+    public void runtimeError(String message, int line){
+        err.println(message +
+                "\n[line " + line + "]");
+        hadRuntimeError = true;
+        if(!Events.recording()) return;
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if(event.shouldCommit()){
+            event.message = message;
+            event.line = line;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.craftingInterpreters.lox;
+// settings shared by any number of contexts, and where contexts come from. the engine keeps no
+// state of its own while scripts run: each context copies the settings when it's made, so
+// contexts made from one engine can run on as many threads as there are contexts
+
+import com.craftingInterpreters.lox.vm.VM;
+
+import java.io.PrintStream;
+import java.util.EnumSet;
+import java.util.Set;
+
+public final class LoxEngine {
+    // which execution engine runs the resolved program
+    public enum Backend{
+        TREE,
+        CLOSURE,
+        VM
+    }
+
+    Backend backend = Backend.TREE;
+    // optimizer passes run on the resolved tree
+    EnumSet<Optimizer.Pass> optimizations = EnumSet.allOf(Optimizer.Pass.class);
+    // results each pure function keeps, 0 turns memoization off
+    int memoSize = 1024;
+    // deepest Lox call stack before a call fails with a stack overflow error
+    int maxDepth = VM.DEFAULT_MAX_DEPTH;
+    // compile hot functions to JVM code, tree and closure backends only
+    boolean jit = false;
+
+    public LoxEngine backend(Backend backend){
+        this.backend = backend;
+        return this;
+    }
+
+    LoxEngine optimizations(Set<Optimizer.Pass> passes){
+        optimizations = EnumSet.noneOf(Optimizer.Pass.class);
+        optimizations.addAll(passes);
+        return this;
+    }
+
+    public LoxEngine memoSize(int size){
+        if(size < 0) throw new IllegalArgumentException("Memo size can't be negative");
+        memoSize = size;
+        return this;
+    }
+
+    public LoxEngine maxDepth(int depth){
+        if(depth <= 0) throw new IllegalArgumentException("Max depth must be positive");
+        maxDepth = depth;
+        return this;
+    }
+
+    public LoxEngine jit(boolean jit){
+        this.jit = jit;
+        return this;
+    }
+
+    // prints to System.out and reports errors to System.err
+    public LoxContext newContext(){
+        return newContext(System.out, System.err);
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err){
+        return new LoxContext(this, out, err);
+    }
+}
@@ -3,40 +3,133 @@ package com.craftingInterpreters.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable{
-    private final Stmt.Function functionStatement;
-    private final Environment closure;
-    private final Boolean isInitializer;
+    // runs the function's statements once its frame is filled in and returns the
+    // function's value, lets the tree walker and the compiled backends share one function type
+    interface Body{
+        Object run(Interpreter interpreter, Frame frame);
+    }
+
+    final Stmt.Function functionStatement;
+    final Frame closure;
+    final Boolean isInitializer;
+    private final Body body;
+    // the instance a method was bound to, methods straight out of a class have none
+    final LoxInstance receiver;
 
     LoxFunction(Stmt.Function functionStatement, Interpreter interpreter, Boolean isInitializer){
-        this.functionStatement = functionStatement;
-        this.closure = interpreter.environment;
-        this.isInitializer = isInitializer;
+        this(functionStatement, interpreter.frame, isInitializer, treeBody(functionStatement));
     }
 
-    LoxFunction(Stmt.Function functionStatement, Environment closure, Boolean isInitializer ){
+    LoxFunction(Stmt.Function functionStatement, Frame closure, Boolean isInitializer, Body body){
+        this(functionStatement, closure, isInitializer, body, null);
+    }
+
+    LoxFunction(Stmt.Function functionStatement, Frame closure, Boolean isInitializer, Body body, LoxInstance receiver){
         this.functionStatement = functionStatement;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.body = body;
+        this.receiver = receiver;
+    }
+
+    // walks the declaration's statements with the interpreter
+    static Body treeBody(Stmt.Function functionStatement){
+        return (runner, frame) -> {
+            Object completion = runner.executeBlock(functionStatement.body, frame);
+            return completion == Interpreter.NORMAL ? null : completion;
+        };
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        int i = 0;
-        for(Token param: this.functionStatement.params){
-            environment.define(param.lexeme(), arguments.get(i));
-            i++;
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    // calls a method on the given receiver without binding it first
+    Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments){
+        Frame frame = frame(receiver);
+        int first = firstParameter();
+        for(int i = 0; i < arguments.size(); i++){
+            frame.slots[first + i] = arguments.get(i);
+        }
+        return run(interpreter, frame);
+    }
+
+    // a fresh frame for a call, the receiver goes in slot 0 of a method's frame
+    // and the caller puts the arguments in from firstParameter on
+    Frame frame(LoxInstance receiver){
+        Frame frame = new Frame(closure, functionStatement.frameSize);
+        if(functionStatement.isMethod) frame.slots[0] = this.receiver != null ? this.receiver : receiver;
+        return frame;
+    }
+
+    int firstParameter(){
+        return functionStatement.isMethod ? 1 : 0;
+    }
+
+    Object run(Interpreter interpreter, Frame frame){
+        ExactProfiler exactProfiler = interpreter.exactProfiler;
+        if(exactProfiler == null) return execute(interpreter, frame);
+        exactProfiler.enter(functionStatement);
+        try {
+            return execute(interpreter, frame);
+        } finally {
+            exactProfiler.exit();
         }
-        // it's slightly insane to me that the error handling is being used as a control flow mechanism
-        // to run the return statement
+    }
+
+    private Object execute(Interpreter interpreter, Frame frame){
+        // pure functions answer repeated arguments from their cache
+        Memo memo = functionStatement.memo;
+        Object key = memo == null ? null : Memo.key(frame.slots, firstParameter(), arity());
+        if(key != null){
+            Object cached = memo.get(interpreter.globals, key);
+            if(cached != Memo.MISS) return cached;
+        }
+        // these backends recurse on the java stack, running out of it is reported
+        // like hitting the depth limit instead of killing the interpreter
+        if(interpreter.depth == interpreter.maxDepth) throw new RuntimeError(functionStatement.name, "Stack overflow");
+        Object result;
+        Profiler profiler = interpreter.profiler;
+        if(profiler != null) profiler.push(functionStatement);
+        CallEvent event = Events.recording() ? new CallEvent() : null;
+        if(event != null) event.begin();
+        interpreter.depth++;
         try {
-            interpreter.executeBlock(functionStatement.body, environment);
-        } catch (Return retValue){
-            if(isInitializer) return closure.getAt(0,"this");
-            return retValue.value;
+            result = body(interpreter).run(interpreter, frame);
+        } catch (StackOverflowError error){
+            throw new RuntimeError(functionStatement.name, "Stack overflow");
+        } finally {
+            interpreter.depth--;
+            if(profiler != null) profiler.pop();
+            if(event != null){
+                event.end();
+                if(event.shouldCommit()){
+                    event.function = functionStatement.name.lexeme();
+                    event.declarationLine = functionStatement.name.line();
+                    event.commit();
+                }
+            }
+        }
+        if(key != null) memo.put(interpreter.globals, key, result);
+        if(isInitializer) return frame.slots[0];
+        return result;
+    }
+
+    // a method that still needs its receiver passed in
+    boolean isUnbound(){
+        return functionStatement.isMethod && receiver == null;
+    }
+
+    // once a declaration has been called often enough its body is swapped for jit compiled code,
+    // shared by every closure and bound method made from it
+    private Body body(Interpreter interpreter){
+        if(functionStatement.compiled != null) return functionStatement.compiled;
+        if(interpreter.jit != null && ++functionStatement.callCount == Jit.THRESHOLD){
+            functionStatement.compiled = interpreter.jit.compile(functionStatement);
+            if(functionStatement.compiled != null) return functionStatement.compiled;
         }
-        if(isInitializer) return closure.getAt(0,"this");
-        return null;
+        return body;
     }
 
     @Override
@@ -45,8 +138,6 @@ public class LoxFunction implements LoxCallable{
     }
 
     LoxFunction bind(LoxInstance instance){
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(functionStatement, environment, this.isInitializer);
+        return new LoxFunction(functionStatement, closure, this.isInitializer, body, instance);
     }
 }
@@ -1,29 +1,52 @@
 package com.craftingInterpreters.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class LoxInstance {
     LoxClass loxClass;
-    HashMap<String, Object> fields = new HashMap<>();
+    // fields live in values at the slots the shape gives them
+    Shape shape;
+    Object[] values;
     LoxInstance(LoxClass loxClass){
         this.loxClass = loxClass;
+        this.shape = loxClass.rootShape;
+        this.values = new Object[loxClass.fieldCapacity];
     }
     @Override
     public String toString(){
         return loxClass.name + " instance";
     }
 
+    // get, set and store are called with the instance locked once fibers may share it, as
+    // PropertyCache does. a field being added moves both shape and values
     Object get(Token name){
-        if(fields.containsKey(name.lexeme())){
-           return fields.get(name.lexeme());
+        int slot = shape.slotOf(name.symbol());
+        if(slot >= 0){
+           return values[slot];
         }
-        LoxFunction method = loxClass.findMethod(name.lexeme()).bind(this);
-        if(method != null)return method;
+        LoxFunction method = loxClass.findMethod(name.symbol());
+        if(method != null) return method.bind(this);
 
         throw new RuntimeError(name, "Property " + name.lexeme() +" not found in instance");
     }
 
     void set(Token name, Object value){
-       fields.put(name.lexeme(), value);
+        int slot = shape.slotOf(name.symbol());
+        if(slot >= 0){
+            values[slot] = value;
+            return;
+        }
+        store(shape.withField(name.symbol()), shape.size, value);
+    }
+
+    // writes a slot under the given shape, growing the values when the shape added a field
+    void store(Shape next, int slot, Object value){
+        if(slot >= values.length){
+            values = Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+            // later instances of the class start out big enough
+            if(values.length > loxClass.fieldCapacity) loxClass.fieldCapacity = values.length;
+        }
+        values[slot] = value;
+        shape = next;
     }
 }
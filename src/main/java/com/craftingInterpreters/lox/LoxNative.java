@@ -0,0 +1,42 @@
+package com.craftingInterpreters.lox;
+// a native function whose body is a method reference. bodies may block, an interrupted one
+// fails the call rather than carry on with the interrupt lost
+
+import java.util.List;
+
+final class LoxNative implements LoxCallable {
+    interface Body{
+        Object call(Interpreter interpreter, List<Object> arguments) throws InterruptedException;
+    }
+
+    // takes any number of arguments
+    static final int VARIADIC = -1;
+
+    private final int arity;
+    private final Body body;
+
+    LoxNative(int arity, Body body){
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments){
+        try {
+            return body.call(interpreter, arguments);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted");
+        }
+    }
+
+    @Override
+    public int arity(){
+        return arity;
+    }
+
+    @Override
+    public String toString(){
+        return "<native fn>";
+    }
+}
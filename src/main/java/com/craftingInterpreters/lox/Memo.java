@@ -0,0 +1,107 @@
+package com.craftingInterpreters.lox;
+// result cache of one pure function, keyed by its arguments. keeps the most recently used
+// results up to a fixed size and counts how much use it was
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class Memo {
+    // handed back by get when the arguments aren't cached
+    static final Object MISS = new Object();
+    // stands in for nil, as a single argument and as a cached result
+    private static final Object NIL = new Object();
+
+    final String name;
+    private final int capacity;
+    private final LinkedHashMap<Object, Object> results;
+    // purity was decided for the globals as they were when the program was prepared, once a
+    // global function is replaced that no longer holds and the cache stays off
+    private final int globalsVersion;
+    private boolean disabled = false;
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+
+    Memo(String name, int capacity, int globalsVersion){
+        this.name = name;
+        this.capacity = capacity;
+        this.globalsVersion = globalsVersion;
+        this.results = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest){
+                if(size() <= Memo.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // key for the arguments in a call's frame, null when one of them can't be compared by value
+    static Object key(Object[] slots, int first, int count){
+        if(count == 1){
+            Object argument = slots[first];
+            if(!isValue(argument)) return null;
+            return argument == null ? NIL : argument;
+        }
+        Object[] arguments = Arrays.copyOfRange(slots, first, first + count);
+        for(Object argument: arguments){
+            if(!isValue(argument)) return null;
+        }
+        return Arrays.asList(arguments);
+    }
+
+    private static boolean isValue(Object value){
+        return value == null || value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+
+    // locked once fibers may share the table, see Environment.shared
+    Object get(Environment globals, Object key){
+        if(globals.shared){
+            synchronized (this){
+                return lookup(globals, key);
+            }
+        }
+        return lookup(globals, key);
+    }
+
+    // a memo made for older globals never hits again
+    boolean isStale(Environment globals){
+        return globalsVersion != globals.callableVersion;
+    }
+
+    private Object lookup(Environment globals, Object key){
+        if(isStale(globals)){
+            disabled = true;
+            results.clear();
+        }
+        if(disabled) return MISS;
+        Object result = results.get(key);
+        if(result == null){
+            misses++;
+            return MISS;
+        }
+        hits++;
+        return result == NIL ? null : result;
+    }
+
+    void put(Environment globals, Object key, Object result){
+        if(globals.shared){
+            synchronized (this){
+                store(key, result);
+            }
+            return;
+        }
+        store(key, result);
+    }
+
+    private void store(Object key, Object result){
+        if(disabled) return;
+        results.put(key, result == null ? NIL : result);
+    }
+
+    @Override
+    public String toString(){
+        return "memo " + name + ": " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,315 @@
+package com.craftingInterpreters.lox;
+// rewrites the resolved tree before it runs. folds constant expressions, drops dead if branches,
+// empty blocks and expression statements that can't do anything, and swaps reads of locals that
+// are never reassigned for their constant value. every pass can be turned off on its own.
+// only operations that can't fail are folded, anything that would raise an error is left to run
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    enum Pass{
+        FOLD,
+        BRANCHES,
+        BLOCKS,
+        PURE,
+        PROPAGATE
+    }
+
+    private final EnumSet<Pass> passes;
+    // value of every local found to be constant so far, keyed by its var statement
+    private final Map<Stmt.Var, Object> constants = new IdentityHashMap<>();
+    // var statements rebuilt with a new initializer, reads of them have to point at the new one.
+    // a read always comes after its declaration in the tree, so the new one is known by then
+    private final Map<Stmt.Var, Stmt.Var> rebuilt = new IdentityHashMap<>();
+
+    Optimizer(EnumSet<Pass> passes){
+        this.passes = passes;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements){
+        if(passes.isEmpty()) return statements;
+        return optimizeAll(statements);
+    }
+
+    // statements that optimize away to nothing are left out
+    private List<Stmt> optimizeAll(List<Stmt> statements){
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for(Stmt stmt: statements){
+            Stmt result = optimize(stmt);
+            if(result != null) optimized.add(result);
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt){
+        Stmt result = stmt.accept(this);
+        // a rebuilt statement keeps the line of the one it replaces
+        if(result != null && result.line == 0) result.line = stmt.line;
+        return result;
+    }
+
+    // for places that need a statement even when it optimized away
+    private Stmt optimizeSingle(Stmt stmt){
+        Stmt result = optimize(stmt);
+        if(result != null) return result;
+        Stmt empty = new Stmt.Block(new ArrayList<>());
+        empty.line = stmt.line;
+        return empty;
+    }
+
+    private Expr optimize(Expr expr){
+        return expr.accept(this);
+    }
+
+    private boolean changed(List<?> before, List<?> after){
+        if(before.size() != after.size()) return true;
+        for(int i = 0; i < before.size(); i++){
+            if(before.get(i) != after.get(i)) return true;
+        }
+        return false;
+    }
+
+    // expressions whose value nothing needs can go if running them can't fail or have effects
+    private static boolean isPure(Expr expr){
+        if(expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        if(expr instanceof Expr.Var var) return var.slot != -1;
+        if(expr instanceof Expr.Grouping grouping) return isPure(grouping.expression);
+        if(expr instanceof Expr.Logical logical) return isPure(logical.left) && isPure(logical.right);
+        if(expr instanceof Expr.Unary unary) return unary.operator.type() == TokenType.BANG && isPure(unary.right);
+        if(expr instanceof Expr.Binary binary){
+            TokenType type = binary.operator.type();
+            return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) && isPure(binary.left) && isPure(binary.right);
+        }
+        return false;
+    }
+
+    // expressions
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if(value == expr.value) return expr;
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(passes.contains(Pass.FOLD) && left instanceof Expr.Literal l && right instanceof Expr.Literal r){
+            Object folded = fold(expr.operator, l.value, r.value);
+            if(folded != null) return new Expr.Literal(folded);
+        }
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    // result of an operator on two constants, null when it would be a runtime error
+    private static Object fold(Token operator, Object left, Object right){
+        if(operator.type() == TokenType.PLUS && left instanceof String a && right instanceof String b) return a + b;
+        if(operator.type() == TokenType.EQUAL_EQUAL) return Interpreter.isEqual(left, right);
+        if(operator.type() == TokenType.BANG_EQUAL) return !Interpreter.isEqual(left, right);
+        if(!(left instanceof Double a) || !(right instanceof Double b)) return null;
+        return switch (operator.type()){
+            case TokenType.PLUS -> a + b;
+            case TokenType.MINUS -> a - b;
+            case TokenType.STAR -> a * b;
+            case TokenType.SLASH -> a / b;
+            case TokenType.GREATER -> a > b;
+            case TokenType.GREATER_EQUAL -> a >= b;
+            case TokenType.LESS -> a < b;
+            case TokenType.LESS_EQUAL -> a <= b;
+            default -> null;
+        };
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if(passes.contains(Pass.FOLD) && expression instanceof Expr.Literal) return expression;
+        if(expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if(passes.contains(Pass.FOLD) && right instanceof Expr.Literal literal){
+            if(expr.operator.type() == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(literal.value));
+            if(expr.operator.type() == TokenType.MINUS && literal.value instanceof Double value) return new Expr.Literal(-value);
+        }
+        if(right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVarExpr(Expr.Var expr) {
+        if(passes.contains(Pass.PROPAGATE) && expr.declaration != null && constants.containsKey(expr.declaration)){
+            return new Expr.Literal(constants.get(expr.declaration));
+        }
+        Stmt.Var declaration = rebuilt.get(expr.declaration);
+        if(declaration == null) return expr;
+        Expr.Var var = new Expr.Var(expr.name);
+        var.depth = expr.depth;
+        var.slot = expr.slot;
+        var.declaration = declaration;
+        return var;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(passes.contains(Pass.FOLD) && left instanceof Expr.Literal literal){
+            boolean truthy = Interpreter.isTruthy(literal.value);
+            if(expr.operator.type() == TokenType.AND) return truthy ? right : left;
+            return truthy ? left : right;
+        }
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for(Expr argument: expr.arguments){
+            arguments.add(optimize(argument));
+        }
+        if(callee == expr.callee && !changed(expr.arguments, arguments)) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpressionExpr(Expr.GetExpression expr) {
+        Expr object = optimize(expr.object);
+        if(object == expr.object) return expr;
+        Expr.GetExpression get = new Expr.GetExpression(object, expr.name);
+        get.cache = expr.cache;
+        return get;
+    }
+
+    @Override
+    public Expr visitSetExpressionExpr(Expr.SetExpression expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if(object == expr.object && value == expr.value) return expr;
+        Expr.SetExpression set = new Expr.SetExpression(object, expr.name, value);
+        set.cache = expr.cache;
+        return set;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    // statements, null means the statement is gone
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(passes.contains(Pass.PURE) && isPure(expression)) return null;
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        // the declaration stays, only the reads of a constant local are replaced
+        if(passes.contains(Pass.PROPAGATE) && stmt.slot != -1 && !stmt.reassigned){
+            if(initializer == null) constants.put(stmt, null);
+            else if(initializer instanceof Expr.Literal literal) constants.put(stmt, literal.value);
+        }
+        if(initializer == stmt.initializer) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.reassigned = stmt.reassigned;
+        rebuilt.put(stmt, var);
+        return var;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if(passes.contains(Pass.BLOCKS) && statements.isEmpty()) return null;
+        if(!changed(stmt.statements, statements)) return stmt;
+        Stmt.Block block = new Stmt.Block(statements);
+        block.frameSize = stmt.frameSize;
+        return block;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(passes.contains(Pass.BRANCHES) && condition instanceof Expr.Literal literal){
+            Stmt branch = Interpreter.isTruthy(literal.value) ? stmt.thenStmt : stmt.elseStmt;
+            return branch == null ? null : optimize(branch);
+        }
+        Stmt thenStmt = optimizeSingle(stmt.thenStmt);
+        Stmt elseStmt = stmt.elseStmt == null ? null : optimizeSingle(stmt.elseStmt);
+        if(condition == stmt.condition && thenStmt == stmt.thenStmt && elseStmt == stmt.elseStmt) return stmt;
+        return new Stmt.If(condition, thenStmt, elseStmt);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        Stmt loop = optimizeSingle(stmt.loop);
+        if(condition == stmt.condition && loop == stmt.loop) return stmt;
+        return new Stmt.While(condition, loop);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        if(!changed(stmt.body, body)) return stmt;
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.frameSize = stmt.frameSize;
+        function.isMethod = stmt.isMethod;
+        return function;
+    }
+
+    @Override
+    public Stmt visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+        Expr expr = optimize(stmt.expr);
+        if(expr == stmt.expr) return stmt;
+        return new Stmt.ReturnStmt(stmt.keyword, expr);
+    }
+
+    @Override
+    public Stmt visitClassStmtStmt(Stmt.ClassStmt stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for(Stmt.Function method: stmt.methods){
+            methods.add((Stmt.Function) optimize(method));
+        }
+        if(!changed(stmt.methods, methods)) return stmt;
+        Stmt.ClassStmt classStmt = new Stmt.ClassStmt(stmt.name, stmt.superclass, methods);
+        classStmt.slot = stmt.slot;
+        return classStmt;
+    }
+}
@@ -0,0 +1,16 @@
+package com.craftingInterpreters.lox;
+// scanning and parsing a program into a tree, ScanEvents inside it are the scanning part
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.Parse")
+@Label("Lox Parse")
+@Category("Lox")
+@StackTrace(false)
+class ParseEvent extends jdk.jfr.Event {
+    @Label("Statements")
+    int statements;
+}
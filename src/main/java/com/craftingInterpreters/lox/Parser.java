@@ -45,11 +45,18 @@ import java.util.List;
 */
 
 public class Parser {
-    private final List<Token> tokens;
+    // tokens come from the scanner's buffer as they're needed. only the last one consumed and the
+    // one after it have to stay in the buffer, which is all the lookahead the grammar needs.
+    // Token objects are only made for the tokens the tree keeps or an error points at
+    private final Scanner scanner;
+    private final TokenBuffer tokens;
     private int current = 0;
+    private Token previous;
 
-    Parser(List<Token> tokens){
-        this.tokens = tokens;
+    Parser(Scanner scanner){
+        this.scanner = scanner;
+        this.tokens = scanner.tokens;
+        scanner.fill(TokenBuffer.CAPACITY);
     }
 
     List<Stmt> parse(){
@@ -65,15 +72,16 @@ public class Parser {
     }
 
     private Stmt declaration(){
+        int line = tokens.line(current);
         try {
             if (match(TokenType.VAR)) {
-                return varDeclaration();
+                return at(line, varDeclaration());
             }
             if(match(TokenType.FUN)){
-                return funcDeclaration("function");
+                return at(line, funcDeclaration("function"));
             }
             if(match(TokenType.CLASS)){
-                return classDeclaration();
+                return at(line, classDeclaration());
             }
             return statement();
         }catch (ParseError error){
@@ -115,7 +123,9 @@ public class Parser {
        }
        if(!match(TokenType.LEFT_BRACE)) throw error(peek(),"Expected '{' before body");
        List<Stmt> body = block();
-       return new Stmt.Function(name,params,body);
+       Stmt.Function function = new Stmt.Function(name,params,body);
+       function.line = name.line();
+       return function;
     }
 
     private Stmt varDeclaration(){
@@ -132,26 +142,33 @@ public class Parser {
     }
 
     private Stmt statement(){
+        int line = tokens.line(current);
         if(match(TokenType.PRINT)){
-            return printStmt();
+            return at(line, printStmt());
         }
         if(match(TokenType.LEFT_BRACE)){
-            return new Stmt.Block(block());
+            return at(line, new Stmt.Block(block()));
         }
         if (match(TokenType.IF)) {
-            return ifStmt();
+            return at(line, ifStmt());
         }
         if(match(TokenType.WHILE)){
-            return whileStmt();
+            return at(line, whileStmt());
         }
         if(match(TokenType.FOR)){
-            return forStmt();
+            return at(line, forStmt());
         }
         if(match(TokenType.RETURN)){
-            return returnStmt();
+            return at(line, returnStmt());
         }
 
-        return exprStmt();
+        return at(line, exprStmt());
+    }
+
+    // records the line a statement starts on
+    private static Stmt at(int line, Stmt stmt){
+        stmt.line = line;
+        return stmt;
     }
 
     private Stmt returnStmt(){
@@ -173,13 +190,14 @@ public class Parser {
 
     private Stmt forStmt(){
         // todo: for loop not working, pls fix
+        int line = previous().line();
         if(!match(TokenType.LEFT_PAR)) throw error(peek(), "Expected '(' after If statement");
         Stmt initialization = null;
         if(!match(TokenType.SEMICOLON)){
            if(match(TokenType.VAR)){
-               initialization = varDeclaration();
+               initialization = at(line, varDeclaration());
            }else{
-               initialization = exprStmt();
+               initialization = at(line, exprStmt());
            }
         }
         Expr condition = new Expr.Literal(true);
@@ -194,18 +212,19 @@ public class Parser {
             if(!match(TokenType.RIGHT_PAR)) throw error(peek(), "Expected ')' after expression");
         }
         Stmt body = statement();
+        // the statements the loop turns into all count as the for line
         if(increment != null){
-            body = new Stmt.Block(Arrays.asList(
+            body = at(line, new Stmt.Block(Arrays.asList(
                     body,
-                    new Stmt.Expression(increment)
-            ));
+                    at(line, new Stmt.Expression(increment))
+            )));
         }
-        body =  new Stmt.While(condition,body);
+        body =  at(line, new Stmt.While(condition,body));
         if(initialization != null){
-            body = new Stmt.Block(Arrays.asList(
+            body = at(line, new Stmt.Block(Arrays.asList(
                     initialization,
                     body
-            ));
+            )));
         }
         return body;
     }
@@ -244,16 +263,52 @@ public class Parser {
         while (!isAtEnd() && !match(TokenType.RIGHT_BRACE)){
             statements.add(declaration());
         }
-        if(previous().type() != TokenType.RIGHT_BRACE) throw error(peek(), "Expect '}' after block");
+        if(!checkPrevious(TokenType.RIGHT_BRACE)) throw error(peek(), "Expect '}' after block");
         return statements;
     }
 
+    // binding power of each operator when it follows an operand, from loosest to tightest.
+    // the levels match the grammar rules above, every rule becomes one entry in the table
+    private enum Precedence{
+        NONE,
+        ASSIGNMENT,
+        OR,
+        AND,
+        EQUALITY,
+        COMPARISON,
+        TERM,
+        FACTOR,
+        UNARY,
+        CALL
+    }
+
+    // precedence of every token type as an infix operator, NONE for the ones that aren't
+    private static final Precedence[] infixPrecedence = new Precedence[TokenType.values().length];
+    private static final Precedence[] precedences = Precedence.values();
+    static {
+        Arrays.fill(infixPrecedence, Precedence.NONE);
+        infixPrecedence[TokenType.OR.ordinal()] = Precedence.OR;
+        infixPrecedence[TokenType.AND.ordinal()] = Precedence.AND;
+        infixPrecedence[TokenType.BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+        infixPrecedence[TokenType.EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+        infixPrecedence[TokenType.LESS.ordinal()] = Precedence.COMPARISON;
+        infixPrecedence[TokenType.LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+        infixPrecedence[TokenType.GREATER.ordinal()] = Precedence.COMPARISON;
+        infixPrecedence[TokenType.GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        infixPrecedence[TokenType.PLUS.ordinal()] = Precedence.TERM;
+        infixPrecedence[TokenType.MINUS.ordinal()] = Precedence.TERM;
+        infixPrecedence[TokenType.SLASH.ordinal()] = Precedence.FACTOR;
+        infixPrecedence[TokenType.STAR.ordinal()] = Precedence.FACTOR;
+        infixPrecedence[TokenType.LEFT_PAR.ordinal()] = Precedence.CALL;
+        infixPrecedence[TokenType.DOT.ordinal()] = Precedence.CALL;
+    }
+
     private Expr expression(){
         return assignment();
     }
 
     private Expr assignment(){
-        Expr expr = logicalOr();
+        Expr expr = parsePrecedence(Precedence.OR);
 
         if(match(TokenType.EQUAL)){
            Token lValue = previous();
@@ -271,83 +326,40 @@ public class Parser {
         return expr;
     }
 
-    private Expr logicalOr(){
-        Expr expr = logicalAnd();
-        while(match(TokenType.OR)){
-            Token operator = previous();
-            Expr right = logicalAnd();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-
-    }
-
-    private Expr logicalAnd(){
-        Expr expr =  equality();
-        while(match(TokenType.AND)){
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator,right);
+    // pratt parsing, an operand and then every following operator that binds at least as
+    // tightly as precedence. one call per operand instead of one per grammar level
+    private Expr parsePrecedence(Precedence precedence){
+        Expr expr = prefix();
+        while(infixPrecedence[tokens.type(current).ordinal()].compareTo(precedence) >= 0){
+            consume();
+            expr = infix(expr);
         }
         return expr;
     }
 
-    private Expr equality(){
-        Expr expr = comparison();
-
-        while(match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)){
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right );
-        }
-        return expr;
-    }
-
-    private Expr comparison(){
-        Expr expr = term();
-        while(match(TokenType.LESS, TokenType.LESS_EQUAL, TokenType.GREATER, TokenType.GREATER_EQUAL)){
-            Token operator =  previous();
-            Expr right = term();
-            expr =  new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr term(){
-        Expr expr = factor();
-        while(match(TokenType.PLUS, TokenType.MINUS)){
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr factor(){
-        Expr expr = unary();
-        while(match(TokenType.SLASH, TokenType.STAR)){
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr unary(){
-        if(match(TokenType.BANG, TokenType.MINUS)){
-            Token operator = previous();
-            Expr right = unary();
+    private Expr prefix(){
+        if(check(TokenType.BANG) || check(TokenType.MINUS)){
+            Token operator = advance();
+            Expr right = parsePrecedence(Precedence.UNARY);
             return new Expr.Unary(operator, right);
         }
-        return call();
+        return primary();
     }
 
-    private Expr call(){
-        Expr expr = primary();
-        while(match(TokenType.LEFT_PAR) || match(TokenType.DOT)){
-           expr = previous().type() == TokenType.LEFT_PAR? finishCall(expr):getExpression(expr) ;
+    // the operator was just consumed, its right operand binds one level tighter so
+    // operators associate to the left
+    private Expr infix(Expr left){
+        TokenType type = tokens.type(current - 1);
+        switch (type){
+            case TokenType.LEFT_PAR:
+                return finishCall(left);
+            case TokenType.DOT:
+                return getExpression(left);
         }
-        return expr;
+        Token operator = previous();
+        Expr right = parsePrecedence(precedences[infixPrecedence[type.ordinal()].ordinal() + 1]);
+        if(type == TokenType.OR || type == TokenType.AND) return new Expr.Logical(left, operator, right);
+        return new Expr.Binary(left, operator, right);
     }
 
     private Expr getExpression(Expr object){
@@ -402,52 +414,62 @@ public class Parser {
     }
 
     private Token previous(){
-        return tokens.get(current-1);
+        if(previous == null) previous = tokens.token(current - 1);
+        return previous;
     }
 
     private Token peek(){
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token advance(){
-        if(isAtEnd()) return previous();
-        return tokens.get(current++);
+        consume();
+        return previous();
+    }
+
+    // advance without making a Token for what was passed
+    private void consume(){
+        if(isAtEnd()) return;
+        current++;
+        previous = null;
+        // refill once the scanner's batch is used up, keeping the token before current
+        if(current == tokens.count) scanner.fill(current - 1 + TokenBuffer.CAPACITY);
+    }
+
+    private boolean checkPrevious(TokenType type){
+        return tokens.is(current - 1, type);
     }
 
     private boolean isAtEnd(){
-        return peek().type() == TokenType.EOF;
+        return tokens.is(current, TokenType.EOF);
     }
 
     private boolean check(TokenType type){
         if(isAtEnd())return false;
-        return peek().type() == type;
+        return tokens.is(current, type);
     }
 
-    private boolean match(TokenType ...types){
-       for(TokenType type: types){
-          if( check(type) ){
-              advance();
-              return true;
-          }
-       }
-       return false;
+    private boolean match(TokenType type){
+        if(!check(type)) return false;
+        consume();
+        return true;
     }
 
     private ParseError error(Token token, String message){
-        Lox.error(token, message);
+        scanner.context.error(token, message);
         return new ParseError();
     }
 
     // At what point is it okay to start checking for errors again
     // (Panic mode end)
     private void synchronize(){
-        advance();
+        consume();
         while(!isAtEnd()){
-            if(previous().type() == TokenType.SEMICOLON){
+            if(checkPrevious(TokenType.SEMICOLON)){
                     return;
             }
 
-            switch (peek().type()){
+            switch (tokens.type(current)){
                 case TokenType.CLASS:
                 case TokenType.FUN:
                 case TokenType.VAR:
@@ -457,7 +479,7 @@ public class Parser {
                 case TokenType.RETURN:
                 case TokenType.PRINT:
                     return;
-                default:advance();
+                default:consume();
             }
         }
     }
@@ -0,0 +1,121 @@
+package com.craftingInterpreters.lox;
+// sampling profiler for lox code. LoxFunction.run pushes its declaration on a shadow stack and
+// pops it when the call ends, and a daemon thread copies that stack every interval and counts
+// how often each stack was seen. the counts come out as collapsed stacks, one line per stack
+// with its frames joined by semicolons, which flame graph tools read directly. the interpreter
+// thread only does two plain stores per push and one per pop, the sampler does the rest
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+final class Profiler {
+    // counts for every stack seen, as a tree from the top level down
+    private static final class Node {
+        final Map<Stmt.Function, Node> children = new IdentityHashMap<>();
+        long samples = 0;
+    }
+
+    private final long intervalNanos;
+    private Stmt.Function[] stack = new Stmt.Function[64];
+    // entries below it are the live calls. set with release and read with acquire, so the sampler
+    // sees an entry once it sees the depth that covers it, without a fence on every call
+    private int depth = 0;
+    private static final VarHandle DEPTH;
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(Profiler.class, "depth", int.class);
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+    private final Node root = new Node();
+    private Stmt.Function[] copy = new Stmt.Function[64];
+    private volatile boolean running = true;
+    private final Thread sampler;
+
+    Profiler(long intervalMicros){
+        intervalNanos = intervalMicros * 1000;
+        sampler = new Thread(this::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void push(Stmt.Function function){
+        int top = depth;
+        if(top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+        stack[top] = function;
+        DEPTH.setRelease(this, top + 1);
+    }
+
+    void pop(){
+        DEPTH.setRelease(this, depth - 1);
+    }
+
+    private void sample(){
+        while(running){
+            LockSupport.parkNanos(intervalNanos);
+            // the stack can move on while it's copied, a sample may mix two nearby stacks
+            int top = (int) DEPTH.getAcquire(this);
+            Stmt.Function[] current = stack;
+            top = Math.min(top, current.length);
+            if(copy.length < top) copy = new Stmt.Function[current.length];
+            System.arraycopy(current, 0, copy, 0, top);
+            synchronized (root){
+                Node node = root;
+                for(int i = 0; i < top; i++){
+                    Stmt.Function function = copy[i];
+                    if(function == null) break;
+                    node = node.children.computeIfAbsent(function, key -> new Node());
+                }
+                node.samples++;
+            }
+        }
+    }
+
+    // stops sampling, the counts so far stay
+    void stop(){
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void write(Writer out) throws IOException {
+        PrintWriter writer = new PrintWriter(out);
+        synchronized (root){
+            write(writer, root, new ArrayList<>());
+        }
+        writer.flush();
+        if(writer.checkError()) throw new IOException("Couldn't write the profile");
+    }
+
+    // top level code is the bottom frame of every stack
+    private static void write(PrintWriter out, Node node, List<String> frames){
+        if(node.samples > 0){
+            out.print("<script>");
+            for(String frame: frames) out.print(";" + frame);
+            out.println(" " + node.samples);
+        }
+        for(Map.Entry<Stmt.Function, Node> child: node.children.entrySet()){
+            frames.add(label(child.getKey()));
+            write(out, child.getValue(), frames);
+            frames.remove(frames.size() - 1);
+        }
+    }
+
+    // name and the line it was declared on, so two functions with one name stay apart
+    private static String label(Stmt.Function function){
+        return function.name.lexeme() + ":" + function.name.line();
+    }
+}
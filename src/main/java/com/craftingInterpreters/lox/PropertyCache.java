@@ -0,0 +1,92 @@
+package com.craftingInterpreters.lox;
+// inline cache for one property get or set site, remembers what the lookup came to
+// for the last few shapes seen there. a site that sees more shapes than that is
+// megamorphic and goes back to looking the name up every time. fibers running the same
+// code share the site, so each entry is one immutable object and only adding one is locked
+
+final class PropertyCache {
+    private static final int POLYMORPHIC_LIMIT = 4;
+
+    // slot is the field's, or -1 when a get found a method. transition is the shape a set moves
+    // the instance to, the same shape when the field already existed
+    private record Entry(Shape shape, int slot, LoxFunction method, Shape transition){}
+
+    private final Entry[] entries = new Entry[POLYMORPHIC_LIMIT];
+    private int size = 0;
+
+    Object get(LoxInstance instance, Token name, Environment globals){
+        Object value = lookup(instance, name, globals);
+        if(value instanceof LoxFunction method && method.isUnbound()) return method.bind(instance);
+        return value;
+    }
+
+    // like get but hands a method back unbound, so a call can pass the receiver in itself.
+    // locked on the instance once fibers may share it, see Environment.shared
+    Object lookup(LoxInstance instance, Token name, Environment globals){
+        if(globals.shared){
+            synchronized (instance){
+                return find(instance, name);
+            }
+        }
+        return find(instance, name);
+    }
+
+    private Object find(LoxInstance instance, Token name){
+        Shape shape = instance.shape;
+        for(int i = 0; i < size; i++){
+            Entry entry = entries[i];
+            if(entry != null && entry.shape() == shape){
+                int slot = entry.slot();
+                return slot >= 0 ? instance.values[slot] : entry.method();
+            }
+        }
+        int slot = shape.slotOf(name.symbol());
+        if(slot >= 0){
+            add(new Entry(shape, slot, null, null));
+            return instance.values[slot];
+        }
+        LoxFunction method = instance.loxClass.findMethod(name.symbol());
+        if(method != null){
+            add(new Entry(shape, -1, method, null));
+            return method;
+        }
+        // a missing property is left to the instance, nothing to cache
+        return instance.get(name);
+    }
+
+    void set(LoxInstance instance, Token name, Object value, Environment globals){
+        if(globals.shared){
+            synchronized (instance){
+                store(instance, name, value);
+            }
+            return;
+        }
+        store(instance, name, value);
+    }
+
+    private void store(LoxInstance instance, Token name, Object value){
+        Shape shape = instance.shape;
+        for(int i = 0; i < size; i++){
+            Entry entry = entries[i];
+            if(entry != null && entry.shape() == shape){
+                instance.store(entry.transition(), entry.slot(), value);
+                return;
+            }
+        }
+        Shape next = shape;
+        int slot = shape.slotOf(name.symbol());
+        if(slot < 0){
+            next = shape.withField(name.symbol());
+            slot = shape.size;
+        }
+        add(new Entry(shape, slot, null, next));
+        instance.store(next, slot, value);
+    }
+
+    // a reader can see size go up before the entry, which it then skips as null
+    private synchronized void add(Entry entry){
+        if(size == POLYMORPHIC_LIMIT) return;
+        entries[size] = entry;
+        size++;
+    }
+}
@@ -0,0 +1,229 @@
+package com.craftingInterpreters.lox;
+// finds the global functions of a program that are pure, that only touch their own parameters
+// and locals, call nothing but other pure functions, don't print and never reach globals or
+// instances, and gives each a memo. a pure function's name can't be assigned or declared twice,
+// otherwise what a call to it runs could change under the cache
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class Purity implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+    // functions still believed pure, starts with every candidate and only shrinks
+    private final Set<String> pure = new HashSet<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
+    // frames opened inside the function being checked, deeper locals belong to something outside it
+    private int frames = 0;
+
+    // globalsVersion is the callable version of the globals the program will run against
+    List<Memo> analyze(List<Stmt> statements, int capacity, int globalsVersion){
+        // first walk collects every global that gets assigned somewhere
+        for(Stmt stmt: statements){
+            check(stmt);
+        }
+
+        Map<String, Stmt.Function> candidates = new HashMap<>();
+        Set<String> declaredTwice = new HashSet<>();
+        Set<String> declared = new HashSet<>();
+        for(Stmt stmt: statements){
+            Token name = null;
+            if(stmt instanceof Stmt.Function function){
+                name = function.name;
+                candidates.put(name.lexeme(), function);
+            } else if(stmt instanceof Stmt.Var var){
+                name = var.name;
+            } else if(stmt instanceof Stmt.ClassStmt classStmt){
+                name = classStmt.name;
+            }
+            if(name != null && !declared.add(name.lexeme())) declaredTwice.add(name.lexeme());
+        }
+        candidates.keySet().removeAll(declaredTwice);
+        candidates.keySet().removeAll(assignedGlobals);
+
+        // assume all of them are pure and drop the ones that aren't until nothing changes,
+        // so functions calling each other recursively can still all be pure
+        pure.addAll(candidates.keySet());
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(Map.Entry<String, Stmt.Function> candidate: candidates.entrySet()){
+                if(pure.contains(candidate.getKey()) && !checkBody(candidate.getValue())){
+                    pure.remove(candidate.getKey());
+                    changed = true;
+                }
+            }
+        }
+
+        List<Memo> memos = new ArrayList<>();
+        for(String name: pure){
+            Stmt.Function function = candidates.get(name);
+            function.memo = new Memo(name, capacity, globalsVersion);
+            memos.add(function.memo);
+        }
+        return memos;
+    }
+
+    private boolean checkBody(Stmt.Function function){
+        int enclosingFrames = frames;
+        frames = 0;
+        boolean result = checkAll(function.body);
+        frames = enclosingFrames;
+        return result;
+    }
+
+    // visits everything even after something impure turned up, the first walk needs all of it
+    private boolean checkAll(List<Stmt> statements){
+        boolean result = true;
+        for(Stmt stmt: statements){
+            result &= check(stmt);
+        }
+        return result;
+    }
+
+    private boolean check(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    private boolean check(Expr expr){
+        return expr.accept(this);
+    }
+
+    private boolean isOwnLocal(int slot, int depth){
+        return slot != -1 && depth <= frames;
+    }
+
+    // expressions
+    @Override
+    public Boolean visitAssignExpr(Expr.Assign expr) {
+        boolean value = check(expr.value);
+        if(expr.slot == -1) assignedGlobals.add(expr.name.lexeme());
+        return value && isOwnLocal(expr.slot, expr.depth);
+    }
+
+    @Override
+    public Boolean visitBinaryExpr(Expr.Binary expr) {
+        return check(expr.left) & check(expr.right);
+    }
+
+    @Override
+    public Boolean visitGroupingExpr(Expr.Grouping expr) {
+        return check(expr.expression);
+    }
+
+    @Override
+    public Boolean visitLiteralExpr(Expr.Literal expr) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitUnaryExpr(Expr.Unary expr) {
+        return check(expr.right);
+    }
+
+    @Override
+    public Boolean visitVarExpr(Expr.Var expr) {
+        return isOwnLocal(expr.slot, expr.depth);
+    }
+
+    @Override
+    public Boolean visitLogicalExpr(Expr.Logical expr) {
+        return check(expr.left) & check(expr.right);
+    }
+
+    @Override
+    public Boolean visitCallExpr(Expr.Call expr) {
+        boolean result = true;
+        for(Expr argument: expr.arguments){
+            result &= check(argument);
+        }
+        // the only global a pure function may read is the name of another pure function it calls
+        if(expr.callee instanceof Expr.Var callee && callee.slot == -1) return result && pure.contains(callee.name.lexeme());
+        check(expr.callee);
+        return false;
+    }
+
+    @Override
+    public Boolean visitGetExpressionExpr(Expr.GetExpression expr) {
+        check(expr.object);
+        return false;
+    }
+
+    @Override
+    public Boolean visitSetExpressionExpr(Expr.SetExpression expr) {
+        check(expr.object);
+        check(expr.value);
+        return false;
+    }
+
+    @Override
+    public Boolean visitSuperExpr(Expr.Super expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitThisExpr(Expr.This expr) {
+        return false;
+    }
+
+    // statements
+    @Override
+    public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+        return check(stmt.expression);
+    }
+
+    @Override
+    public Boolean visitPrintStmt(Stmt.Print stmt) {
+        check(stmt.expression);
+        return false;
+    }
+
+    @Override
+    public Boolean visitVarStmt(Stmt.Var stmt) {
+        return stmt.initializer == null || check(stmt.initializer);
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block stmt) {
+        boolean hasFrame = stmt.frameSize > 0;
+        if(hasFrame) frames++;
+        boolean result = checkAll(stmt.statements);
+        if(hasFrame) frames--;
+        return result;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If stmt) {
+        boolean result = check(stmt.condition) & check(stmt.thenStmt);
+        if(stmt.elseStmt != null) result &= check(stmt.elseStmt);
+        return result;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While stmt) {
+        return check(stmt.condition) & check(stmt.loop);
+    }
+
+    // a function made inside a pure one would capture its locals, so nested functions make it impure
+    @Override
+    public Boolean visitFunctionStmt(Stmt.Function stmt) {
+        checkBody(stmt);
+        return false;
+    }
+
+    @Override
+    public Boolean visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+        return check(stmt.expr);
+    }
+
+    @Override
+    public Boolean visitClassStmtStmt(Stmt.ClassStmt stmt) {
+        if(stmt.superclass != null) check(stmt.superclass);
+        for(Stmt.Function method: stmt.methods){
+            checkBody(method);
+        }
+        return false;
+    }
+}
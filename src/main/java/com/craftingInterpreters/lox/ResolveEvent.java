@@ -0,0 +1,16 @@
+package com.craftingInterpreters.lox;
+// resolving a parsed program's variables to frame slots
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.Resolve")
+@Label("Lox Resolve")
+@Category("Lox")
+@StackTrace(false)
+class ResolveEvent extends jdk.jfr.Event {
+    @Label("Statements")
+    int statements;
+}
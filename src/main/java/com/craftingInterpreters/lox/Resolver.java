@@ -1,16 +1,17 @@
 package com.craftingInterpreters.lox;
 // resolving variable scopes before moving on to interpretation
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
+import java.util.function.IntConsumer;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // where resolution errors are reported
+    private final LoxContext context;
     private enum FunctionType{
         NONE,
         METHOD,
@@ -22,8 +23,32 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         SUBCLASS,
         NONE
     }
-    Resolver(Interpreter interpreter){
-       this.interpreter = interpreter;
+
+    // every scope becomes a Frame at runtime, a variable's slot is its declaration order
+    private static class Scope{
+        // all keyed by the symbol of the name
+        final SymbolMap<Boolean> variables = new SymbolMap<>();
+        final SymbolMap<Integer> slots = new SymbolMap<>();
+        // var statements behind the names, params, functions and classes have none
+        final SymbolMap<Stmt.Var> declarations = new SymbolMap<>();
+        // blocks with no declarations never get a frame, so depths to outer
+        // scopes can only be counted once the scopes in between are closed
+        final List<PendingLocal> pending = new ArrayList<>();
+        final boolean elidable;
+
+        Scope(boolean elidable){
+            this.elidable = elidable;
+        }
+
+        boolean hasFrame(){
+            return !elidable || slots.size() > 0;
+        }
+    }
+
+    private record PendingLocal(List<Scope> between, IntConsumer setDepth){}
+
+    Resolver(LoxContext context){
+        this.context = context;
     }
 
     public void resolve(List<Stmt>stmts){
@@ -41,39 +66,72 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
 
     void beginScope(){
-        scopes.add(new HashMap<>());
+        scopes.add(new Scope(false));
     }
 
-    void endScope(){
-        scopes.pop();
+    void beginBlockScope(){
+        scopes.add(new Scope(true));
     }
 
-    void declare(Token token){
-        if(scopes.isEmpty())return;
+    int endScope(){
+        Scope scope = scopes.pop();
+        for(PendingLocal local: scope.pending){
+            int depth = 0;
+            for(Scope between: local.between()){
+                if(between.hasFrame()) depth++;
+            }
+            local.setDepth().accept(depth);
+        }
+        return scope.hasFrame() ? scope.slots.size() : 0;
+    }
+
+    // returns the slot given to the name or -1 when it lives in globals
+    int declare(Token token){
+        if(scopes.isEmpty())return -1;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(token.lexeme())){
-            Lox.error(token, "A local variable can not be initialized twice");
+        Scope scope = scopes.peek();
+        if(scope.variables.containsKey(token.symbol())){
+            context.error(token, "A local variable can not be initialized twice");
+            return scope.slots.get(token.symbol());
         }
-        scope.put(token.lexeme(), false);
+        scope.variables.put(token.symbol(), false);
+        return declareSlot(scope, token.symbol());
+    }
+
+    private int declareSlot(Scope scope, int symbol){
+        int slot = scope.slots.size();
+        scope.slots.put(symbol, slot);
+        return slot;
     }
 
     void define(Token token){
         if(scopes.isEmpty())return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        scope.put(token.lexeme(), true);
+        Scope scope = scopes.peek();
+        scope.variables.put(token.symbol(), true);
     }
 
-    void resolveLocal(Expr expr, Token name){
-        int i = 0;
-        for(Map<String, Boolean> scope: scopes.reversed()){
-            if(scope.containsKey(name.lexeme())){
-                interpreter.resolve(expr, i);
-                return;
+    // finds the scope holding name, hands its slot back right away and the depth once
+    // every scope in between knows whether it gets a frame, -1 if the name is global
+    int resolveLocal(Token name, IntConsumer setDepth){
+        List<Scope> between = new ArrayList<>();
+        for(Scope scope: scopes.reversed()){
+            Integer slot = scope.slots.get(name.symbol());
+            if(slot != null){
+                scope.pending.add(new PendingLocal(between, setDepth));
+                return slot;
             }
-            i++;
+            between.add(scope);
         }
+        return -1;
+    }
+
+    // the var statement a local name refers to, null for globals and names declared some other way
+    private Stmt.Var declarationOf(Token name){
+        for(Scope scope: scopes.reversed()){
+            if(scope.slots.containsKey(name.symbol())) return scope.declarations.get(name.symbol());
+        }
+        return null;
     }
 
     void resolveFunction(Stmt.Function stmt, FunctionType functionType){
@@ -81,19 +139,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
        FunctionType outerFunc = currentFunction;
        currentFunction = functionType;
 
+       // methods get their receiver in slot 0, ahead of the parameters
+       if(functionType == FunctionType.METHOD){
+           stmt.isMethod = true;
+           scopes.peek().variables.put(Symbols.THIS, true);
+           declareSlot(scopes.peek(), Symbols.THIS);
+       }
        for(Token param: stmt.params){
            declare(param);
            define(param);
        }
        resolve(stmt.body);
-       endScope();
+       stmt.frameSize = endScope();
        currentFunction = outerFunc;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr,expr.name);
+        expr.slot = resolveLocal(expr.name, depth -> expr.depth = depth);
+        Stmt.Var declaration = declarationOf(expr.name);
+        if(declaration != null) declaration.reassigned = true;
         return null;
     }
 
@@ -123,11 +189,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVarExpr(Expr.Var expr) {
-       if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme()) == Boolean.FALSE){
-           Lox.error(expr.name, "Can't read local variable in it's own initializer.");
+       if(!scopes.isEmpty() && scopes.peek().variables.get(expr.name.symbol()) == Boolean.FALSE){
+           context.error(expr.name, "Can't read local variable in it's own initializer.");
        }
 
-        resolveLocal(expr, expr.name);
+        expr.slot = resolveLocal(expr.name, depth -> expr.depth = depth);
+        expr.declaration = declarationOf(expr.name);
         return null;
     }
 
@@ -162,15 +229,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
-        if(currentClass != ClassType.SUBCLASS) Lox.error(expr.Keyword, "'super' can only be used in a subclass");
-        resolveLocal(expr, expr.Keyword);
+        if(currentClass != ClassType.SUBCLASS) context.error(expr.Keyword, "'super' can only be used in a subclass");
+        resolveLocal(expr.Keyword, depth -> expr.depth = depth);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
-        if(currentClass == ClassType.NONE) Lox.error(expr.keyword, "'this' keyword can only be used in a class method");
-        resolveLocal(expr, expr.keyword);
+        if(currentClass == ClassType.NONE) context.error(expr.keyword, "'this' keyword can only be used in a class method");
+        resolveLocal(expr.keyword, depth -> expr.depth = depth);
         return null;
     }
 
@@ -188,7 +255,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        if(stmt.slot != -1) scopes.peek().declarations.put(stmt.name.symbol(), stmt);
         if(stmt.initializer != null)resolve(stmt.initializer);
         define(stmt.name);
         return null;
@@ -196,9 +264,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        beginBlockScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.frameSize = endScope();
         return null;
     }
 
@@ -219,7 +287,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -227,9 +295,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
-        if(currentFunction == FunctionType.NONE) Lox.error(stmt.keyword, "Can not return from top-level code");
+        if(currentFunction == FunctionType.NONE) context.error(stmt.keyword, "Can not return from top-level code");
         if(stmt.expr != null){
-            if(currentFunction == FunctionType.INITIALIZER) Lox.error(stmt.keyword, "Can not return a value from initializer");
+            if(currentFunction == FunctionType.INITIALIZER) context.error(stmt.keyword, "Can not return a value from initializer");
             resolve(stmt.expr);
         }
         return null;
@@ -238,24 +306,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitClassStmtStmt(Stmt.ClassStmt stmt) {
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
         ClassType surroundingClass = currentClass;
         currentClass = ClassType.CLASS;
         if(stmt.superclass != null){
-            if(stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) Lox.error(stmt.superclass.name, "A class can not inherit from itself");
+            if(stmt.name.symbol() == stmt.superclass.name.symbol()) context.error(stmt.superclass.name, "A class can not inherit from itself");
             currentClass =  ClassType.SUBCLASS;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.peek().variables.put(Symbols.SUPER, true);
+            declareSlot(scopes.peek(), Symbols.SUPER);
         }
-        beginScope();
-        scopes.peek().put("this", true);
         for(Stmt.Function method: stmt.methods){
             FunctionType declaration = FunctionType.METHOD;
             resolveFunction(method,declaration);
         }
-        endScope();
         if(stmt.superclass !=null)endScope();
         currentClass = surroundingClass;
         return null;
@@ -0,0 +1,19 @@
+package com.craftingInterpreters.lox;
+// a runtime error reported by any backend
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.RuntimeError")
+@Label("Lox Runtime Error")
+@Category("Lox")
+@StackTrace(false)
+class RuntimeErrorEvent extends jdk.jfr.Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+}
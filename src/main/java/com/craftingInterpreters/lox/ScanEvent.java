@@ -0,0 +1,23 @@
+package com.craftingInterpreters.lox;
+// one batch of tokens scanned. the scanner runs inside parsing, as the parser asks for tokens,
+// so these nest in a ParseEvent and add up to the scanning part of it
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.Scan")
+@Label("Lox Scan")
+@Category("Lox")
+@Description("A batch of tokens scanned for the parser")
+@StackTrace(false)
+class ScanEvent extends jdk.jfr.Event {
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Line")
+    @Description("Line the batch ended on")
+    int line;
+}
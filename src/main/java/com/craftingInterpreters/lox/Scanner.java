@@ -1,52 +1,61 @@
 package com.craftingInterpreters.lox;
+// pulls tokens out of the source a batch at a time as the parser asks for them. the source is
+// utf-8 bytes, usually a memory mapped file, and tokens go into a TokenBuffer as offsets into
+// it, so scanning allocates nothing per token and nothing is decoded until it's needed
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-
-    private static final HashMap<String, TokenType> keywordMap;
-    static {
-        keywordMap = new HashMap<>();
-        keywordMap.put("and", TokenType.AND);
-        keywordMap.put("or", TokenType.OR);
-        keywordMap.put("else", TokenType.ELSE);
-        keywordMap.put("if", TokenType.IF);
-        keywordMap.put("for", TokenType.FOR);
-        keywordMap.put("while", TokenType.WHILE);
-        keywordMap.put("class", TokenType.CLASS);
-        keywordMap.put("print", TokenType.PRINT);
-        keywordMap.put("fun", TokenType.FUN);
-        keywordMap.put("true", TokenType.TRUE);
-        keywordMap.put("false", TokenType.FALSE);
-        keywordMap.put("nil", TokenType.NIL);
-        keywordMap.put("var", TokenType.VAR);
-        keywordMap.put("return", TokenType.RETURN);
-        keywordMap.put("super", TokenType.SUPER);
-        keywordMap.put("this", TokenType.THIS);
-    }
+    private final ByteBuffer source;
+    private final int length;
+    final TokenBuffer tokens;
+
     // location info
     private int start = 0, current=0, line=1;
-    Scanner(String source){
+    private boolean done = false;
+    // where errors in the source are reported, the parser reports to it too
+    final LoxContext context;
+
+    Scanner(ByteBuffer source, LoxContext context){
         this.source = source;
+        this.context = context;
+        this.length = source.limit();
+        this.tokens = new TokenBuffer(source);
     }
 
-    public List<Token> scanTokens(){
-        while(!isAtEnd()){
+    Scanner(String source, LoxContext context){
+        this(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)), context);
+    }
+
+    // scans until the buffer holds limit tokens, or up to the EOF token
+    void fill(int limit){
+        if(tokens.count >= limit || done) return;
+        ScanEvent event = Events.recording() ? new ScanEvent() : null;
+        if(event != null) event.begin();
+        int first = tokens.count;
+        while(tokens.count < limit && !done){
+            if(isAtEnd()){
+                // end of file token
+                tokens.add(TokenType.EOF, current, 0, line, -1);
+                done = true;
+                break;
+            }
             // start of new lexeme
             start = current;
             scanToken();
         }
-        // end of file token
-        tokens.add(new Token(line, null, "", TokenType.EOF));
-        return tokens;
+        if(event == null) return;
+        event.end();
+        if(event.shouldCommit()){
+            event.tokens = tokens.count - first;
+            event.line = line;
+            event.commit();
+        }
     }
 
     private Boolean isAtEnd(){
-        return current >= source.length();
+        return current >= length;
     }
 
     private void scanToken(){
@@ -83,20 +92,16 @@ public class Scanner {
                 addToken(TokenType.STAR);
                 break;
             case '=':
-                if(match('=')) addToken(TokenType.EQUAL_EQUAL);
-                else addToken(TokenType.EQUAL);
+                addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
                 break;
             case '!':
-                if(match('=')) addToken(TokenType.BANG_EQUAL);
-                else addToken(TokenType.BANG);
+                addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
                 break;
             case '<':
-                if(match('=')) addToken(TokenType.LESS_EQUAL);
-                else addToken(TokenType.LESS);
+                addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
                 break;
             case '>':
-                if(match('=')) addToken(TokenType.GREATER_EQUAL);
-                else addToken(TokenType.GREATER);
+                addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
                 break;
             case '/':
                 if(match('/'))while(peek() != '\n' && !isAtEnd()) advance();
@@ -107,11 +112,12 @@ public class Scanner {
                     if(advance() == '\n')line++;
                 }
                 if(isAtEnd()){
-                    Lox.error(line, "Missing \", unterminated string");
+                    context.error(line, "Missing \", unterminated string");
                     break;
                 }
                 advance();
-                addToken( TokenType.STRING, source.substring(start+1, current-1));
+                addToken(TokenType.STRING);
+                break;
             case ' ':
             case '\t':
             case '\r':
@@ -127,42 +133,101 @@ public class Scanner {
                         do advance();
                         while (isDigit(peek()) && !isAtEnd());
                     }
-                    addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start,current)));
+                    addToken(TokenType.NUMBER);
                     break;
                 }
 
                 // identifier & keyword check
                 if(isAlpha(c)){
                     while(isAlphaNumeric(peek()) && !isAtEnd()) advance();
-                    TokenType type = keywordMap.get(source.substring(start,current));
-                    if(type == null) type = TokenType.IDENTIFIER;
-                    addToken(type);
+                    addName(keyword());
                     break;
                 }
-                Lox.error(line,"Unexpected character "+c);
+                // the rest of a multi byte character belongs to the same error
+                if(c >= 0x80){
+                    while((peek() & 0xC0) == 0x80 && !isAtEnd()) advance();
+                }
+                context.error(line,"Unexpected character "+tokens.text(start, current));
                 break;
         }
     }
+
     private void addToken(TokenType type){
-        addToken(type, null);
+        tokens.add(type, start, current - start, line, -1);
+    }
+
+    // names are interned here, while their bytes are at hand
+    private void addName(TokenType type){
+        int symbol = switch (type){
+            case IDENTIFIER -> Symbols.intern(source, start, current - start);
+            case THIS -> Symbols.THIS;
+            case SUPER -> Symbols.SUPER;
+            default -> -1;
+        };
+        tokens.add(type, start, current - start, line, symbol);
+    }
+
+    // keywords are told apart by their first letters and checked against the source in place
+    private TokenType keyword(){
+        switch (charAt(start)){
+            case 'a': return rest(1, "nd", TokenType.AND);
+            case 'c': return rest(1, "lass", TokenType.CLASS);
+            case 'e': return rest(1, "lse", TokenType.ELSE);
+            case 'f':
+                if(current - start > 1){
+                    switch (charAt(start + 1)){
+                        case 'a': return rest(2, "lse", TokenType.FALSE);
+                        case 'o': return rest(2, "r", TokenType.FOR);
+                        case 'u': return rest(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return rest(1, "f", TokenType.IF);
+            case 'n': return rest(1, "il", TokenType.NIL);
+            case 'o': return rest(1, "r", TokenType.OR);
+            case 'p': return rest(1, "rint", TokenType.PRINT);
+            case 'r': return rest(1, "eturn", TokenType.RETURN);
+            case 's': return rest(1, "uper", TokenType.SUPER);
+            case 't':
+                if(current - start > 1){
+                    switch (charAt(start + 1)){
+                        case 'h': return rest(2, "is", TokenType.THIS);
+                        case 'r': return rest(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return rest(1, "ar", TokenType.VAR);
+            case 'w': return rest(1, "hile", TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    // type if the lexeme from offset on is exactly rest, otherwise it's an identifier
+    private TokenType rest(int offset, String rest, TokenType type){
+        if(current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+        for(int i = 0; i < rest.length(); i++){
+            if(charAt(start + offset + i) != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
-    private void addToken(TokenType type, Object literal){
-        String lexeme = source.substring(start, current);
-        tokens.add(new Token(line, literal, lexeme, type));
+
+    private char charAt(int index){
+        return (char) (source.get(index) & 0xFF);
     }
 
+    // bytes of the source as chars, anything outside ascii comes out as 0x80 and up
     private char advance(){
-        return source.charAt(current++);
+        return (char) (source.get(current++) & 0xFF);
     }
 
     private char peek(){
-        if (current >= source.length()) return '\0';
-        return source.charAt(current);
+        if (current >= length) return '\0';
+        return (char) (source.get(current) & 0xFF);
     }
 
     private char peekNext(){
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current+1);
+        if (current + 1 >= length) return '\0';
+        return (char) (source.get(current+1) & 0xFF);
     }
 
     private boolean match(char c){
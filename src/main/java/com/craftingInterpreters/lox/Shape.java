@@ -0,0 +1,48 @@
+package com.craftingInterpreters.lox;
+// layout of an instance's fields, which name lives in which slot of its values array.
+// instances that got the same fields in the same order share one shape, so a shape can
+// stand in for the whole layout when property sites cache their lookups
+
+public final class Shape {
+    final LoxClass loxClass;
+    final int size;
+    // keyed by field symbol
+    private final SymbolMap<Integer> slots;
+    private final SymbolMap<Shape> transitions = new SymbolMap<>();
+
+    // the empty layout every instance of a class starts with
+    Shape(LoxClass loxClass){
+        this(loxClass, new SymbolMap<>());
+    }
+
+    private Shape(LoxClass loxClass, SymbolMap<Integer> slots){
+        this.loxClass = loxClass;
+        this.slots = slots;
+        this.size = slots.size();
+    }
+
+    int slotOf(int symbol){
+        Integer slot = slots.get(symbol);
+        return slot == null ? -1 : slot;
+    }
+
+    // symbols of the fields in slot order
+    int[] fields(){
+        int[] fields = new int[size];
+        slots.forEach((slot, symbol) -> fields[slot] = symbol);
+        return fields;
+    }
+
+    // shape after adding a field, made once and then shared by every instance taking the same path.
+    // instances on different fibers can take the same path at once, so it's locked
+    synchronized Shape withField(int symbol){
+        Shape next = transitions.get(symbol);
+        if(next == null){
+            SymbolMap<Integer> nextSlots = slots.copy();
+            nextSlots.put(symbol, size);
+            next = new Shape(loxClass, nextSlots);
+            transitions.put(symbol, next);
+        }
+        return next;
+    }
+}
@@ -2,8 +2,8 @@ package com.craftingInterpreters.lox;
 
 import java.util.List;
 
-abstract class Stmt {
- interface Visitor<R> {
+public abstract class Stmt {
+ public interface Visitor<R> {
     R visitExpressionStmt(Expression stmt);
     R visitPrintStmt(Print stmt);
     R visitVarStmt(Var stmt);
@@ -14,57 +14,60 @@ abstract class Stmt {
     R visitReturnStmtStmt(ReturnStmt stmt);
     R visitClassStmtStmt(ClassStmt stmt);
   }
- static class Expression extends Stmt {
+ public static class Expression extends Stmt {
      Expression(Expr expression) {
         this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitExpressionStmt(this);
     }
 
-    final Expr expression;
+    public final Expr expression;
    }
- static class Print extends Stmt {
+ public static class Print extends Stmt {
      Print(Expr expression) {
         this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitPrintStmt(this);
     }
 
-    final Expr expression;
+    public final Expr expression;
    }
- static class Var extends Stmt {
+ public static class Var extends Stmt {
      Var(Token name, Expr initializer) {
         this.name = name;
         this.initializer = initializer;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitVarStmt(this);
     }
 
-    final Token name;
-    final Expr initializer;
+    public final Token name;
+    public final Expr initializer;
+    int slot = -1;
+    boolean reassigned = false;
    }
- static class Block extends Stmt {
+ public static class Block extends Stmt {
      Block(List<Stmt> statements) {
         this.statements = statements;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitBlockStmt(this);
     }
 
-    final List<Stmt> statements;
+    public final List<Stmt> statements;
+    int frameSize = 0;
    }
- static class If extends Stmt {
+ public static class If extends Stmt {
      If(Expr condition, Stmt thenStmt, Stmt elseStmt) {
         this.condition = condition;
         this.thenStmt = thenStmt;
@@ -72,29 +75,29 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitIfStmt(this);
     }
 
-    final Expr condition;
-    final Stmt thenStmt;
-    final Stmt elseStmt;
+    public final Expr condition;
+    public final Stmt thenStmt;
+    public final Stmt elseStmt;
    }
- static class While extends Stmt {
+ public static class While extends Stmt {
      While(Expr condition, Stmt loop) {
         this.condition = condition;
         this.loop = loop;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitWhileStmt(this);
     }
 
-    final Expr condition;
-    final Stmt loop;
+    public final Expr condition;
+    public final Stmt loop;
    }
- static class Function extends Stmt {
+ public static class Function extends Stmt {
      Function(Token name, List<Token> params, List<Stmt> body) {
         this.name = name;
         this.params = params;
@@ -102,29 +105,35 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitFunctionStmt(this);
     }
 
-    final Token name;
-    final List<Token> params;
-    final List<Stmt> body;
+    public final Token name;
+    public final List<Token> params;
+    public final List<Stmt> body;
+    int slot = -1;
+    int frameSize = 0;
+    boolean isMethod = false;
+    int callCount = 0;
+    LoxFunction.Body compiled = null;
+    Memo memo = null;
    }
- static class ReturnStmt extends Stmt {
+ public static class ReturnStmt extends Stmt {
      ReturnStmt(Token keyword, Expr expr) {
         this.keyword = keyword;
         this.expr = expr;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitReturnStmtStmt(this);
     }
 
-    final Token keyword;
-    final Expr expr;
+    public final Token keyword;
+    public final Expr expr;
    }
- static class ClassStmt extends Stmt {
+ public static class ClassStmt extends Stmt {
      ClassStmt(Token name, Expr.Var superclass, List<Stmt.Function> methods) {
         this.name = name;
         this.superclass = superclass;
@@ -132,14 +141,17 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
      return visitor.visitClassStmtStmt(this);
     }
 
-    final Token name;
-    final Expr.Var superclass;
-    final List<Stmt.Function> methods;
+    public final Token name;
+    public final Expr.Var superclass;
+    public final List<Stmt.Function> methods;
+    int slot = -1;
    }
 
-   abstract <R> R accept(Visitor<R> visitor);
+   int line = 0;
+
+   public abstract <R> R accept(Visitor<R> visitor);
 }
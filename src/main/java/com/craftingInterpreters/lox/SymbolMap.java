@@ -0,0 +1,113 @@
+package com.craftingInterpreters.lox;
+// map keyed by symbol id, open addressing over parallel arrays with linear probing. lookups
+// are an int multiply and compare, no hashCode or equals, and find hands back the entry
+// so a caller can test for a key and read or replace its value with one probe
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+final class SymbolMap<V> {
+    // symbol + 1, 0 marks an empty entry
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    SymbolMap(){
+        this(8);
+    }
+
+    // room for expected entries without growing
+    SymbolMap(int expected){
+        int capacity = 8;
+        while(capacity < expected * 2) capacity *= 2;
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    private static int hash(int symbol){
+        int h = symbol * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // index of the symbol's entry, or -1 when it isn't there
+    int find(int symbol){
+        int mask = keys.length - 1;
+        for(int i = hash(symbol) & mask; ; i = (i + 1) & mask){
+            int key = keys[i];
+            if(key == symbol + 1) return i;
+            if(key == 0) return -1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index){
+        return (V) values[index];
+    }
+
+    void setValueAt(int index, V value){
+        values[index] = value;
+    }
+
+    // null when absent, for maps that never hold null
+    V get(int symbol){
+        int index = find(symbol);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    boolean containsKey(int symbol){
+        return find(symbol) >= 0;
+    }
+
+    void put(int symbol, V value){
+        int mask = keys.length - 1;
+        int i = hash(symbol) & mask;
+        while(keys[i] != 0 && keys[i] != symbol + 1) i = (i + 1) & mask;
+        if(keys[i] == 0){
+            keys[i] = symbol + 1;
+            size++;
+        }
+        values[i] = value;
+        // kept at most half full
+        if(size * 2 > keys.length) grow();
+    }
+
+    @SuppressWarnings("unchecked")
+    void putAll(SymbolMap<? extends V> other){
+        for(int i = 0; i < other.keys.length; i++){
+            if(other.keys[i] != 0) put(other.keys[i] - 1, (V) other.values[i]);
+        }
+    }
+
+    void forEach(ObjIntConsumer<V> action){
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i] != 0) action.accept(valueAt(i), keys[i] - 1);
+        }
+    }
+
+    int size(){
+        return size;
+    }
+
+    private void grow(){
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for(int j = 0; j < oldKeys.length; j++){
+            if(oldKeys[j] == 0) continue;
+            int i = hash(oldKeys[j] - 1) & mask;
+            while(keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    SymbolMap<V> copy(){
+        SymbolMap<V> copy = new SymbolMap<>();
+        copy.keys = Arrays.copyOf(keys, keys.length);
+        copy.values = Arrays.copyOf(values, values.length);
+        copy.size = size;
+        return copy;
+    }
+}
@@ -0,0 +1,122 @@
+package com.craftingInterpreters.lox;
+// every identifier the runtime has seen, each given a small int id the first time. the scanner
+// interns names straight from the source bytes, so globals, fields, methods and scopes can be
+// keyed by the id and never hash or compare the name again. every context shares the one table,
+// so a name already in it is found without taking the lock, only adding one locks
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public final class Symbols {
+    private static String[] names = new String[256];
+    private static int[] hashes = new int[256];
+    private static int count = 0;
+    // open addressed, holds id + 1 so an empty entry is 0
+    private static int[] table = new int[512];
+
+    static final int THIS = intern("this");
+    static final int SUPER = intern("super");
+    static final int INIT = intern("init");
+
+    private Symbols(){}
+
+    public static int intern(String name){
+        int hash = name.hashCode();
+        // names are only ever added and an entry is filled in before it's reachable from the table,
+        // so a read racing an add can miss a name or see an old array but never finds the wrong one
+        int[] table = Symbols.table;
+        String[] names = Symbols.names;
+        int mask = table.length - 1;
+        for(int i = hash & mask; ; i = (i + 1) & mask){
+            int id = table[i] - 1;
+            String candidate = id < 0 || id >= names.length ? null : names[id];
+            if(candidate == null) break;
+            if(candidate.equals(name)) return id;
+        }
+        return internLocked(name, hash);
+    }
+
+    private static synchronized int internLocked(String name, int hash){
+        int mask = table.length - 1;
+        for(int i = hash & mask; ; i = (i + 1) & mask){
+            int id = table[i] - 1;
+            if(id < 0) return add(name, hash, i);
+            if(hashes[id] == hash && names[id].equals(name)) return id;
+        }
+    }
+
+    // interns the ascii name at start in source without decoding it unless it's new,
+    // hashed the way String.hashCode would so both kinds of lookup meet
+    static int intern(ByteBuffer source, int start, int length){
+        int hash = 0;
+        for(int i = 0; i < length; i++){
+            hash = 31 * hash + (source.get(start + i) & 0xFF);
+        }
+        // unlocked first, as in intern(String)
+        int[] table = Symbols.table;
+        String[] names = Symbols.names;
+        int mask = table.length - 1;
+        for(int i = hash & mask; ; i = (i + 1) & mask){
+            int id = table[i] - 1;
+            String candidate = id < 0 || id >= names.length ? null : names[id];
+            if(candidate == null) break;
+            if(matches(candidate, source, start, length)) return id;
+        }
+        return internLocked(source, start, length, hash);
+    }
+
+    private static synchronized int internLocked(ByteBuffer source, int start, int length, int hash){
+        int mask = table.length - 1;
+        for(int i = hash & mask; ; i = (i + 1) & mask){
+            int id = table[i] - 1;
+            if(id < 0){
+                byte[] bytes = new byte[length];
+                source.get(start, bytes);
+                return add(new String(bytes, StandardCharsets.US_ASCII), hash, i);
+            }
+            if(hashes[id] == hash && matches(names[id], source, start, length)) return id;
+        }
+    }
+
+    static String name(int symbol){
+        String[] names = Symbols.names;
+        String name = symbol < names.length ? names[symbol] : null;
+        if(name != null) return name;
+        synchronized (Symbols.class){
+            return Symbols.names[symbol];
+        }
+    }
+
+    private static boolean matches(String name, ByteBuffer source, int start, int length){
+        if(name.length() != length) return false;
+        for(int i = 0; i < length; i++){
+            if(name.charAt(i) != (source.get(start + i) & 0xFF)) return false;
+        }
+        return true;
+    }
+
+    private static int add(String name, int hash, int index){
+        int id = count++;
+        if(id == names.length){
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = name;
+        hashes[id] = hash;
+        table[index] = id + 1;
+        // kept at most half full
+        if(count * 2 > table.length) rehash();
+        return id;
+    }
+
+    private static void rehash(){
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for(int id = 0; id < count; id++){
+            int i = hashes[id] & mask;
+            while(table[i] != 0) i = (i + 1) & mask;
+            table[i] = id + 1;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.craftingInterpreters.lox;
 
-public record Token(int line, Object literal, String lexeme, TokenType type){
+// symbol is the interned id of a name, -1 for tokens that aren't one
+public record Token(int line, Object literal, String lexeme, TokenType type, int symbol){
+    public Token(int line, Object literal, String lexeme, TokenType type){
+        this(line, literal, lexeme, type, switch (type){
+            case IDENTIFIER, THIS, SUPER -> Symbols.intern(lexeme);
+            default -> -1;
+        });
+    }
+
     public String toString(){
         return this.type + " " + this.lexeme + " " + this.literal;
     }
-}
\ No newline at end of file
+}
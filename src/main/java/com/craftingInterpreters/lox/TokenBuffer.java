@@ -0,0 +1,76 @@
+package com.craftingInterpreters.lox;
+// tokens as parallel int arrays instead of one object each, a fixed ring the scanner fills in
+// batches and the parser reads through. a token is just its type, where it starts in the source,
+// its length, its line and the symbol of a name, the lexeme and literal are only decoded when a
+// Token gets built
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class TokenBuffer {
+    // power of two so positions wrap with a mask
+    static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer source;
+    private final int[] types = new int[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    private final int[] symbols = new int[CAPACITY];
+    // tokens written so far, positions below count - CAPACITY have been overwritten
+    int count = 0;
+
+    TokenBuffer(ByteBuffer source){
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line, int symbol){
+        int i = count++ & MASK;
+        types[i] = type.ordinal();
+        starts[i] = start;
+        lengths[i] = length;
+        lines[i] = line;
+        symbols[i] = symbol;
+    }
+
+    boolean is(int position, TokenType type){
+        return types[position & MASK] == type.ordinal();
+    }
+
+    TokenType type(int position){
+        return TYPES[types[position & MASK]];
+    }
+
+    int line(int position){
+        return lines[position & MASK];
+    }
+
+    String lexeme(int position){
+        int i = position & MASK;
+        return text(starts[i], starts[i] + lengths[i]);
+    }
+
+    // the token as the tree keeps it, with its lexeme and literal decoded
+    Token token(int position){
+        TokenType type = type(position);
+        String lexeme = lexeme(position);
+        return new Token(line(position), literal(type, lexeme), lexeme, type, symbols[position & MASK]);
+    }
+
+    // value of a number or string token, null for the rest
+    static Object literal(TokenType type, String lexeme){
+        return switch (type){
+            case NUMBER -> Double.parseDouble(lexeme);
+            case STRING -> lexeme.substring(1, lexeme.length() - 1);
+            default -> null;
+        };
+    }
+
+    String text(int from, int to){
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
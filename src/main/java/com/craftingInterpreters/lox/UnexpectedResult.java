@@ -0,0 +1,10 @@
+package com.craftingInterpreters.lox;
+
+// thrown by a typed entry point when the value didn't have the expected type, carries it boxed
+public class UnexpectedResult extends Exception{
+    final Object result;
+    UnexpectedResult(Object result){
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
@@ -0,0 +1,61 @@
+package com.craftingInterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// bytecode for one function along with its constant pool and a run length encoded line table
+public class Chunk {
+    byte[] code = new byte[64];
+    int count = 0;
+    Object[] constants;
+    private final List<Object> constantPool = new ArrayList<>();
+
+    // lineStarts[i] is the first code offset that belongs to lines[i]
+    private int[] lineStarts = new int[8];
+    private int[] lines = new int[8];
+    private int lineCount = 0;
+
+    void write(byte value, int line){
+        if(count == code.length) code = Arrays.copyOf(code, count * 2);
+        code[count] = value;
+        if(lineCount == 0 || lines[lineCount - 1] != line){
+            if(lineCount == lines.length){
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lines = Arrays.copyOf(lines, lineCount * 2);
+            }
+            lineStarts[lineCount] = count;
+            lines[lineCount] = line;
+            lineCount++;
+        }
+        count++;
+    }
+
+    int addConstant(Object value){
+        // numbers and strings are immutable, so equal ones can share a slot
+        if(value instanceof Double || value instanceof String){
+            int existing = constantPool.indexOf(value);
+            if(existing != -1) return existing;
+        }
+        constantPool.add(value);
+        return constantPool.size() - 1;
+    }
+
+    int getLine(int offset){
+        int low = 0, high = lineCount - 1;
+        while(low < high){
+            int mid = (low + high + 1) >>> 1;
+            if(lineStarts[mid] <= offset) low = mid;
+            else high = mid - 1;
+        }
+        return lines[low];
+    }
+
+    // trims the buffers once the compiler is done with the chunk
+    void finish(){
+        code = Arrays.copyOf(code, count);
+        constants = constantPool.toArray();
+        lineStarts = Arrays.copyOf(lineStarts, lineCount);
+        lines = Arrays.copyOf(lines, lineCount);
+    }
+}
@@ -0,0 +1,550 @@
+package com.craftingInterpreters.lox.vm;
+// turning the parsed and resolved tree into bytecode chunks for the VM
+
+import com.craftingInterpreters.lox.Expr;
+import com.craftingInterpreters.lox.LoxContext;
+import com.craftingInterpreters.lox.Stmt;
+import com.craftingInterpreters.lox.Token;
+import com.craftingInterpreters.lox.TokenType;
+
+import java.util.List;
+
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType{
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    private static class Local{
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    // per function compile state, locals mirror the function's stack window
+    private static class FunctionState{
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final Local[] locals = new Local[MAX_LOCALS];
+        int localCount = 0;
+        final boolean[] upvalueIsLocal = new boolean[MAX_UPVALUES];
+        final int[] upvalueIndex = new int[MAX_UPVALUES];
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type){
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // slot zero holds the callee, or the receiver inside methods
+            String name = (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) ? "this" : "";
+            locals[localCount++] = new Local(name, 0);
+        }
+    }
+
+    private FunctionState current;
+    // line of the last token seen, literals and groupings carry none of their own
+    private int line = 1;
+    // set by a return whose value is a call, picked up by that call
+    private boolean tailCall = false;
+    // where compile errors are reported
+    private final LoxContext context;
+
+    public Compiler(LoxContext context){
+        this.context = context;
+    }
+
+    public ObjFunction compile(List<Stmt> statements){
+        current = new FunctionState(null, new ObjFunction(null), FunctionType.SCRIPT);
+        for(Stmt statement: statements){
+            compile(statement);
+        }
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    // emitting code
+    private Chunk chunk(){
+        return current.function.chunk;
+    }
+
+    private void emit(byte op){
+        chunk().write(op, line);
+    }
+
+    private void emit(byte op, int operand){
+        emit(op);
+        emit((byte) operand);
+    }
+
+    private void emitShort(byte op, int operand){
+        emit(op);
+        emit((byte) (operand >> 8));
+        emit((byte) operand);
+    }
+
+    private int makeConstant(Object value){
+        int constant = chunk().addConstant(value);
+        if(constant > 0xffff){
+            context.error(line, "Too many constants in one chunk");
+            return 0;
+        }
+        return constant;
+    }
+
+    private int identifierConstant(Token name){
+        return makeConstant(name.lexeme());
+    }
+
+    private int emitJump(byte op){
+        emit(op);
+        emit((byte) 0xff);
+        emit((byte) 0xff);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset){
+        int jump = chunk().count - offset - 2;
+        if(jump > 0xffff) context.error(line, "Too much code to jump over");
+        chunk().code[offset] = (byte) (jump >> 8);
+        chunk().code[offset + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int loopStart){
+        emit(OpCode.LOOP);
+        int offset = chunk().count - loopStart + 2;
+        if(offset > 0xffff) context.error(line, "Loop body too large");
+        emit((byte) (offset >> 8));
+        emit((byte) offset);
+    }
+
+    private void emitReturn(){
+        if(current.type == FunctionType.INITIALIZER) emit(OpCode.GET_LOCAL, 0);
+        else emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+    }
+
+    private ObjFunction endFunction(){
+        emitReturn();
+        ObjFunction function = current.function;
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    // scopes and variables
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+        while(current.localCount > 0 && current.locals[current.localCount - 1].depth > current.scopeDepth){
+            if(current.locals[current.localCount - 1].isCaptured) emit(OpCode.CLOSE_UPVALUE);
+            else emit(OpCode.POP);
+            current.localCount--;
+        }
+    }
+
+    private void addLocal(Token name){
+        if(current.localCount == MAX_LOCALS){
+            context.error(name, "Too many local variables in function");
+            return;
+        }
+        // depth -1 marks a declared but not yet initialized local
+        current.locals[current.localCount++] = new Local(name.lexeme(), -1);
+    }
+
+    private void markInitialized(){
+        if(current.scopeDepth == 0) return;
+        current.locals[current.localCount - 1].depth = current.scopeDepth;
+    }
+
+    // locals are claimed by name when declared, globals when defined
+    private int declareVariable(Token name){
+        if(current.scopeDepth == 0) return identifierConstant(name);
+        addLocal(name);
+        return 0;
+    }
+
+    private void defineVariable(int global){
+        if(current.scopeDepth > 0){
+            markInitialized();
+            return;
+        }
+        emitShort(OpCode.DEFINE_GLOBAL, global);
+    }
+
+    private static int resolveLocal(FunctionState state, String name){
+        for(int i = state.localCount - 1; i >= 0; i--){
+            if(state.locals[i].name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name){
+        if(state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name.lexeme());
+        if(local != -1){
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, name, local, true);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if(upvalue != -1) return addUpvalue(state, name, upvalue, false);
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, Token name, int index, boolean isLocal){
+        int count = state.function.upvalueCount;
+        for(int i = 0; i < count; i++){
+            if(state.upvalueIndex[i] == index && state.upvalueIsLocal[i] == isLocal) return i;
+        }
+        if(count == MAX_UPVALUES){
+            context.error(name, "Too many closure variables in function");
+            return 0;
+        }
+        state.upvalueIsLocal[count] = isLocal;
+        state.upvalueIndex[count] = index;
+        return state.function.upvalueCount++;
+    }
+
+    private void namedVariable(Token name, Expr value){
+        line = name.line();
+        byte getOp, setOp;
+        int arg = resolveLocal(current, name.lexeme());
+        if(arg != -1){
+            getOp = OpCode.GET_LOCAL;
+            setOp = OpCode.SET_LOCAL;
+        } else if((arg = resolveUpvalue(current, name)) != -1){
+            getOp = OpCode.GET_UPVALUE;
+            setOp = OpCode.SET_UPVALUE;
+        } else {
+            arg = identifierConstant(name);
+            if(value != null) compile(value);
+            line = name.line();
+            emitShort(value == null ? OpCode.GET_GLOBAL : OpCode.SET_GLOBAL, arg);
+            return;
+        }
+        if(value != null) compile(value);
+        line = name.line();
+        emit(value == null ? getOp : setOp, arg);
+    }
+
+    // expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        namedVariable(expr.name, expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        // the tree walker evaluates the right operand first, the VM keeps that order
+        // so binary instructions find the left operand on top of the stack
+        compile(expr.right);
+        compile(expr.left);
+        line = expr.operator.line();
+        switch (expr.operator.type()){
+            case TokenType.PLUS -> emit(OpCode.ADD);
+            case TokenType.MINUS -> emit(OpCode.SUBTRACT);
+            case TokenType.STAR -> emit(OpCode.MULTIPLY);
+            case TokenType.SLASH -> emit(OpCode.DIVIDE);
+            case TokenType.GREATER -> emit(OpCode.GREATER);
+            case TokenType.GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case TokenType.LESS -> emit(OpCode.LESS);
+            case TokenType.LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            case TokenType.BANG_EQUAL -> emit(OpCode.NOT_EQUAL);
+            case TokenType.EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) emit(OpCode.NIL);
+        else if(expr.value == Boolean.TRUE) emit(OpCode.TRUE);
+        else if(expr.value == Boolean.FALSE) emit(OpCode.FALSE);
+        else emitShort(OpCode.CONSTANT, makeConstant(expr.value));
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line();
+        switch (expr.operator.type()){
+            case TokenType.BANG -> emit(OpCode.NOT);
+            case TokenType.MINUS -> emit(OpCode.NEGATE);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        namedVariable(expr.name, null);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line();
+        if(expr.operator.type() == TokenType.AND){
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // only the call a return hands back is in tail position, not the ones inside it
+        boolean tail = tailCall;
+        tailCall = false;
+        // method calls skip creating a bound method
+        if(expr.callee instanceof Expr.GetExpression get){
+            compile(get.object);
+            compileArguments(expr.arguments);
+            line = expr.paren.line();
+            emitShort(tail ? OpCode.TAIL_INVOKE : OpCode.INVOKE, identifierConstant(get.name));
+            emit((byte) expr.arguments.size());
+            return null;
+        }
+        if(expr.callee instanceof Expr.Super superExpr){
+            namedVariable(new Token(superExpr.Keyword.line(), null, "this", TokenType.THIS), null);
+            compileArguments(expr.arguments);
+            namedVariable(superExpr.Keyword, null);
+            line = expr.paren.line();
+            emitShort(OpCode.SUPER_INVOKE, identifierConstant(superExpr.method));
+            emit((byte) expr.arguments.size());
+            return null;
+        }
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+        line = expr.paren.line();
+        emit(tail ? OpCode.TAIL_CALL : OpCode.CALL, expr.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments){
+        for(Expr argument: arguments){
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitGetExpressionExpr(Expr.GetExpression expr) {
+        compile(expr.object);
+        line = expr.name.line();
+        emitShort(OpCode.GET_PROPERTY, identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpressionExpr(Expr.SetExpression expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line();
+        emitShort(OpCode.SET_PROPERTY, identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        namedVariable(new Token(expr.Keyword.line(), null, "this", TokenType.THIS), null);
+        namedVariable(expr.Keyword, null);
+        line = expr.method.line();
+        emitShort(OpCode.GET_SUPER, identifierConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword, null);
+        return null;
+    }
+
+    // statements
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        int global = declareVariable(stmt.name);
+        if(stmt.initializer != null) compile(stmt.initializer);
+        else emit(OpCode.NIL);
+        line = stmt.name.line();
+        defineVariable(global);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt statement: stmt.statements){
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenStmt);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if(stmt.elseStmt != null) compile(stmt.elseStmt);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.loop);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        int global = declareVariable(stmt.name);
+        // a function can refer to itself, so it is initialized before its body is compiled
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(global);
+        return null;
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type){
+        current = new FunctionState(current, new ObjFunction(stmt.name.lexeme()), type);
+        current.function.arity = stmt.params.size();
+        beginScope();
+        for(Token param: stmt.params){
+            addLocal(param);
+            markInitialized();
+        }
+        for(Stmt statement: stmt.body){
+            compile(statement);
+        }
+        FunctionState state = current;
+        ObjFunction function = endFunction();
+
+        line = stmt.name.line();
+        emitShort(OpCode.CLOSURE, makeConstant(function));
+        for(int i = 0; i < function.upvalueCount; i++){
+            emit((byte) (state.upvalueIsLocal[i] ? 1 : 0));
+            emit((byte) state.upvalueIndex[i]);
+        }
+    }
+
+    @Override
+    public Void visitReturnStmtStmt(Stmt.ReturnStmt stmt) {
+        // initializers have to return the instance, so their returns are never tail calls
+        Expr value = stmt.expr;
+        while(value instanceof Expr.Grouping grouping) value = grouping.expression;
+        tailCall = value instanceof Expr.Call
+                && current.type != FunctionType.INITIALIZER && current.type != FunctionType.SCRIPT;
+        compile(stmt.expr);
+        line = stmt.keyword.line();
+        // initializers always hand back the instance, whatever the return says
+        if(current.type == FunctionType.INITIALIZER){
+            emit(OpCode.POP);
+            emit(OpCode.GET_LOCAL, 0);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmtStmt(Stmt.ClassStmt stmt) {
+        line = stmt.name.line();
+        int nameConstant = identifierConstant(stmt.name);
+        int global = declareVariable(stmt.name);
+        emitShort(OpCode.CLASS, nameConstant);
+        defineVariable(global);
+
+        if(stmt.superclass != null){
+            compile(stmt.superclass);
+            beginScope();
+            addLocal(new Token(stmt.superclass.name.line(), null, "super", TokenType.SUPER));
+            defineVariable(0);
+            namedVariable(stmt.name, null);
+            line = stmt.superclass.name.line();
+            emit(OpCode.INHERIT);
+        }
+
+        namedVariable(stmt.name, null);
+        for(Stmt.Function method: stmt.methods){
+            FunctionType type = method.name.lexeme().equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emitShort(OpCode.METHOD, identifierConstant(method.name));
+        }
+        emit(OpCode.POP);
+
+        if(stmt.superclass != null) endScope();
+        return null;
+    }
+}
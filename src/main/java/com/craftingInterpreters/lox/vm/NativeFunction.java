@@ -0,0 +1,22 @@
+package com.craftingInterpreters.lox.vm;
+
+public class NativeFunction {
+    interface Body{
+        Object call(Object[] arguments);
+    }
+
+    final String name;
+    final int arity;
+    final Body body;
+
+    NativeFunction(String name, int arity, Body body){
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString(){
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,19 @@
+package com.craftingInterpreters.lox.vm;
+
+import java.util.HashMap;
+
+public class ObjClass {
+    final String name;
+    // inherited methods are copied in by INHERIT, so a lookup never walks the superclass chain
+    final HashMap<String, ObjClosure> methods = new HashMap<>();
+    ObjClosure initializer;
+
+    ObjClass(String name){
+        this.name = name;
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
@@ -0,0 +1,19 @@
+package com.craftingInterpreters.lox.vm;
+
+// compiled code of a function declaration, shared by every closure made from it
+public class ObjFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+
+    ObjFunction(String name){
+        this.name = name;
+    }
+
+    @Override
+    public String toString(){
+        if(name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftingInterpreters.lox.vm;
+
+import java.util.HashMap;
+
+public class ObjInstance {
+    final ObjClass klass;
+    final HashMap<String, Object> fields = new HashMap<>();
+
+    ObjInstance(ObjClass klass){
+        this.klass = klass;
+    }
+
+    @Override
+    public String toString(){
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,30 @@
+package com.craftingInterpreters.lox.vm;
+
+// a captured variable, points at a stack slot until that slot goes out of scope
+// and then holds the value itself
+public class ObjUpvalue {
+    final int location;
+    Object closed;
+    boolean isOpen = true;
+    // open upvalues form a list sorted by stack slot, innermost first
+    ObjUpvalue next;
+
+    ObjUpvalue(int location, ObjUpvalue next){
+        this.location = location;
+        this.next = next;
+    }
+
+    Object get(Object[] stack){
+        return isOpen ? stack[location] : closed;
+    }
+
+    void set(Object[] stack, Object value){
+        if(isOpen) stack[location] = value;
+        else closed = value;
+    }
+
+    void close(Object[] stack){
+        closed = stack[location];
+        isOpen = false;
+    }
+}
@@ -0,0 +1,504 @@
+package com.craftingInterpreters.lox.vm;
+// stack based virtual machine running the chunks made by Compiler
+
+import com.craftingInterpreters.lox.LoxContext;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+public class VM {
+    // deepest Lox call stack allowed unless the VM is given its own limit
+    public static final int DEFAULT_MAX_DEPTH = 10_000;
+
+    private static class CallFrame{
+        ObjClosure closure;
+        int ip;
+        // stack index of slot zero
+        int base;
+    }
+
+    // thrown inside the dispatch loop and reported with the line of the failing instruction
+    private static class VmError extends RuntimeException{
+        VmError(String message){
+            super(message, null, false, false);
+        }
+    }
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private ObjUpvalue openUpvalues = null;
+    private final HashMap<String, Object> globals = new HashMap<>();
+    // calls live in frames rather than on the java stack, so this is the only limit on depth
+    private final int maxFrames;
+    // where print goes and runtime errors are reported
+    private final LoxContext context;
+
+    public VM(LoxContext context){
+        this(context, DEFAULT_MAX_DEPTH);
+    }
+
+    public VM(LoxContext context, int maxFrames){
+        this.context = context;
+        this.maxFrames = maxFrames;
+        for(int i = 0; i < frames.length; i++) frames[i] = new CallFrame();
+        defineNative("clock", 0, arguments -> (double) System.currentTimeMillis() / 1000.0);
+    }
+
+    private void defineNative(String name, int arity, NativeFunction.Body body){
+        globals.put(name, new NativeFunction(name, arity, body));
+    }
+
+    public void interpret(ObjFunction script){
+        ObjClosure closure = new ObjClosure(script);
+        push(closure);
+        try{
+            call(closure, 0);
+            run();
+        }catch (VmError error){
+            CallFrame frame = frames[frameCount - 1];
+            context.runtimeError(error.getMessage(), frame.closure.function.chunk.getLine(frame.ip - 1));
+            resetStack();
+        }
+    }
+
+    private void resetStack(){
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value){
+        if(sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);
+        stack[sp++] = value;
+    }
+
+    private Object pop(){
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private Object peek(int distance){
+        return stack[sp - 1 - distance];
+    }
+
+    private void run(){
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        try {
+            for(;;){
+                switch (code[ip++]){
+                    case OpCode.CONSTANT -> {
+                        push(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                    }
+                    case OpCode.NIL -> push(null);
+                    case OpCode.TRUE -> push(Boolean.TRUE);
+                    case OpCode.FALSE -> push(Boolean.FALSE);
+                    case OpCode.POP -> pop();
+                    case OpCode.GET_LOCAL -> push(stack[base + (code[ip++] & 0xff)]);
+                    case OpCode.SET_LOCAL -> stack[base + (code[ip++] & 0xff)] = peek(0);
+                    case OpCode.GET_GLOBAL -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        Object value = globals.get(name);
+                        if(value == null && !globals.containsKey(name)) throw new VmError("Undefined variable '" + name + "'");
+                        push(value);
+                    }
+                    case OpCode.DEFINE_GLOBAL -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        globals.put(name, pop());
+                    }
+                    case OpCode.SET_GLOBAL -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if(!globals.containsKey(name)) throw new VmError("Undefined variable '" + name + "'");
+                        globals.put(name, peek(0));
+                    }
+                    case OpCode.GET_UPVALUE -> push(frame.closure.upvalues[code[ip++] & 0xff].get(stack));
+                    case OpCode.SET_UPVALUE -> frame.closure.upvalues[code[ip++] & 0xff].set(stack, peek(0));
+                    case OpCode.GET_PROPERTY -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if(!(peek(0) instanceof ObjInstance instance)) throw new VmError("Only instances can have properties");
+                        Object value = instance.fields.get(name);
+                        if(value != null || instance.fields.containsKey(name)){
+                            stack[sp - 1] = value;
+                        } else {
+                            ObjClosure method = instance.klass.methods.get(name);
+                            if(method == null) throw new VmError("Property " + name + " not found in instance");
+                            stack[sp - 1] = new ObjBoundMethod(instance, method);
+                        }
+                    }
+                    case OpCode.SET_PROPERTY -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if(!(peek(1) instanceof ObjInstance instance)) throw new VmError("Only instances can have properties");
+                        Object value = pop();
+                        instance.fields.put(name, value);
+                        stack[sp - 1] = value;
+                    }
+                    case OpCode.GET_SUPER -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClass superclass = (ObjClass) pop();
+                        ObjClosure method = superclass.methods.get(name);
+                        if(method == null) throw new VmError("Undefined property " + name);
+                        stack[sp - 1] = new ObjBoundMethod(peek(0), method);
+                    }
+                    // binary instructions find the left operand on top
+                    case OpCode.EQUAL -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        stack[sp - 1] = Objects.equals(left, right);
+                    }
+                    case OpCode.NOT_EQUAL -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        stack[sp - 1] = !Objects.equals(left, right);
+                    }
+                    case OpCode.GREATER -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left > (double) right;
+                    }
+                    case OpCode.GREATER_EQUAL -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left >= (double) right;
+                    }
+                    case OpCode.LESS -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left < (double) right;
+                    }
+                    case OpCode.LESS_EQUAL -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left <= (double) right;
+                    }
+                    case OpCode.ADD -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        if(left instanceof Double a && right instanceof Double b) stack[sp - 1] = a + b;
+                        else if(left instanceof String a && right instanceof String b) stack[sp - 1] = a + b;
+                        else throw new VmError("Operands must be two numbers or two strings");
+                    }
+                    case OpCode.SUBTRACT -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left - (double) right;
+                    }
+                    case OpCode.MULTIPLY -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left * (double) right;
+                    }
+                    case OpCode.DIVIDE -> {
+                        Object left = pop();
+                        Object right = peek(0);
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left / (double) right;
+                    }
+                    case OpCode.NOT -> stack[sp - 1] = !isTruthy(peek(0));
+                    case OpCode.NEGATE -> {
+                        if(!(peek(0) instanceof Double value)) throw new VmError("Operand must be a number");
+                        stack[sp - 1] = -value;
+                    }
+                    case OpCode.PRINT -> context.out().println(stringify(pop()));
+                    case OpCode.JUMP -> ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    case OpCode.JUMP_IF_FALSE -> {
+                        if(isTruthy(peek(0))) ip += 2;
+                        else ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    case OpCode.LOOP -> ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                    case OpCode.CALL -> {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        if(callValue(peek(argCount), argCount)){
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                    }
+                    case OpCode.TAIL_CALL -> {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        if(tailCallValue(peek(argCount), argCount)){
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                    }
+                    case OpCode.TAIL_INVOKE -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        if(tailInvoke(name, argCount)){
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                    }
+                    case OpCode.INVOKE -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        if(invoke(name, argCount)){
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                    }
+                    case OpCode.SUPER_INVOKE -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        ObjClass superclass = (ObjClass) pop();
+                        ObjClosure method = superclass.methods.get(name);
+                        if(method == null) throw new VmError("Undefined property " + name);
+                        call(method, argCount);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    case OpCode.CLOSURE -> {
+                        ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClosure closure = new ObjClosure(function);
+                        push(closure);
+                        for(int i = 0; i < closure.upvalues.length; i++){
+                            boolean isLocal = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                        }
+                    }
+                    case OpCode.CLOSE_UPVALUE -> {
+                        closeUpvalues(sp - 1);
+                        pop();
+                    }
+                    case OpCode.RETURN -> {
+                        Object result = pop();
+                        closeUpvalues(base);
+                        frameCount--;
+                        if(frameCount == 0){
+                            pop();
+                            return;
+                        }
+                        Arrays.fill(stack, base, sp, null);
+                        sp = base;
+                        push(result);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    case OpCode.CLASS -> {
+                        push(new ObjClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]));
+                        ip += 2;
+                    }
+                    case OpCode.INHERIT -> {
+                        if(!(peek(1) instanceof ObjClass superclass)) throw new VmError("Superclass must be a class");
+                        ObjClass subclass = (ObjClass) peek(0);
+                        subclass.methods.putAll(superclass.methods);
+                        subclass.initializer = superclass.initializer;
+                        pop();
+                    }
+                    case OpCode.METHOD -> {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClosure method = (ObjClosure) peek(0);
+                        ObjClass klass = (ObjClass) peek(1);
+                        klass.methods.put(name, method);
+                        if(name.equals("init")) klass.initializer = method;
+                        pop();
+                    }
+                    default -> throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+                }
+            }
+        } finally {
+            // lets the error report find the failing instruction
+            frame.ip = ip;
+        }
+    }
+
+    // returns true when a new call frame was pushed
+    private boolean callValue(Object callee, int argCount){
+        if(callee instanceof ObjClosure closure){
+            call(closure, argCount);
+            return true;
+        }
+        if(callee instanceof ObjBoundMethod bound){
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+            return true;
+        }
+        if(callee instanceof ObjClass klass){
+            stack[sp - argCount - 1] = new ObjInstance(klass);
+            if(klass.initializer != null){
+                call(klass.initializer, argCount);
+                return true;
+            }
+            if(argCount != 0) throw new VmError("Expected 0 arguments, got " + argCount + " instead");
+            return false;
+        }
+        if(callee instanceof NativeFunction function){
+            if(argCount != function.arity){
+                throw new VmError("Expected " + function.arity + " arguments, got " + argCount + " instead");
+            }
+            Object[] arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+            Object result = function.body.call(arguments);
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            push(result);
+            return false;
+        }
+        throw new VmError("Expression is not callable, only functions and classes are callable");
+    }
+
+    private boolean invoke(String name, int argCount){
+        if(!(peek(argCount) instanceof ObjInstance instance)) throw new VmError("Only instances can have properties");
+        // a field holding a function shadows the method of the same name
+        Object field = instance.fields.get(name);
+        if(field != null || instance.fields.containsKey(name)){
+            stack[sp - argCount - 1] = field;
+            return callValue(field, argCount);
+        }
+        ObjClosure method = instance.klass.methods.get(name);
+        if(method == null) throw new VmError("Property " + name + " not found in instance");
+        call(method, argCount);
+        return true;
+    }
+
+    // closures and bound methods take over the running frame, anything else is an ordinary call.
+    // the return after a tail call only runs when no frame was reused
+    private boolean tailCallValue(Object callee, int argCount){
+        if(callee instanceof ObjClosure closure){
+            tailCall(closure, argCount);
+            return true;
+        }
+        if(callee instanceof ObjBoundMethod bound){
+            stack[sp - argCount - 1] = bound.receiver;
+            tailCall(bound.method, argCount);
+            return true;
+        }
+        return callValue(callee, argCount);
+    }
+
+    private boolean tailInvoke(String name, int argCount){
+        if(!(peek(argCount) instanceof ObjInstance instance)) throw new VmError("Only instances can have properties");
+        Object field = instance.fields.get(name);
+        if(field != null || instance.fields.containsKey(name)){
+            stack[sp - argCount - 1] = field;
+            return tailCallValue(field, argCount);
+        }
+        ObjClosure method = instance.klass.methods.get(name);
+        if(method == null) throw new VmError("Property " + name + " not found in instance");
+        tailCall(method, argCount);
+        return true;
+    }
+
+    // slides the callee and its arguments down over the running frame's window and starts over
+    private void tailCall(ObjClosure closure, int argCount){
+        if(argCount != closure.function.arity){
+            throw new VmError("Expected " + closure.function.arity + " arguments, got " + argCount + " instead");
+        }
+        CallFrame frame = frames[frameCount - 1];
+        closeUpvalues(frame.base);
+        int top = frame.base + argCount + 1;
+        System.arraycopy(stack, sp - argCount - 1, stack, frame.base, argCount + 1);
+        Arrays.fill(stack, top, sp, null);
+        sp = top;
+        frame.closure = closure;
+        frame.ip = 0;
+    }
+
+    private void call(ObjClosure closure, int argCount){
+        if(argCount != closure.function.arity){
+            throw new VmError("Expected " + closure.function.arity + " arguments, got " + argCount + " instead");
+        }
+        if(frameCount == maxFrames) throw new VmError("Stack overflow");
+        if(frameCount == frames.length){
+            frames = Arrays.copyOf(frames, Math.min(frameCount * 2, maxFrames));
+            for(int i = frameCount; i < frames.length; i++) frames[i] = new CallFrame();
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private ObjUpvalue captureUpvalue(int location){
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while(upvalue != null && upvalue.location > location){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue != null && upvalue.location == location) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(location, upvalue);
+        if(previous == null) openUpvalues = created;
+        else previous.next = created;
+        return created;
+    }
+
+    private void closeUpvalues(int last){
+        while(openUpvalues != null && openUpvalues.location >= last){
+            openUpvalues.close(stack);
+            openUpvalues = openUpvalues.next;
+        }
+    }
+
+    private static boolean isTruthy(Object value){
+        if(value == null) return false;
+        if(value instanceof Boolean) return (boolean) value;
+        return true;
+    }
+
+    private static void checkNumberOperands(Object a, Object b){
+        if(a instanceof Double && b instanceof Double) return;
+        throw new VmError("Operands must be numbers");
+    }
+
+    private static String stringify(Object value){
+        if(value == null) return "nil";
+        if(value instanceof Double){
+            String text = value.toString();
+            if(text.endsWith(".0")){
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return value.toString();
+    }
+}
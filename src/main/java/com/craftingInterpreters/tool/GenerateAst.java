@@ -14,36 +14,37 @@ public class GenerateAst {
         }
         String outputDir = args[0];
 
-        defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
+        defineAst(outputDir, "Expr", null, Arrays.asList(
+                "Assign   : Token name, Expr value : int depth = -1, int slot = -1",
                 "Binary   : Expr left, Token operator, Expr right",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Unary    : Token operator, Expr right",
-                "Var      : Token name",
+                "Var      : Token name : int depth = -1, int slot = -1, Stmt.Var declaration = null",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "GetExpression : Expr object, Token name",
-                "SetExpression : Expr object, Token name, Expr value",
-                "Super      : Token Keyword, Token method",
-                "This       : Token keyword"
+                "GetExpression : Expr object, Token name : PropertyCache cache = new PropertyCache()",
+                "SetExpression : Expr object, Token name, Expr value : PropertyCache cache = new PropertyCache()",
+                "Super      : Token Keyword, Token method : int depth = -1, Interpreter.SuperCache cached = null",
+                "This       : Token keyword : int depth = -1"
         ));
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        // the line is what the exact profiler counts executions by
+        defineAst(outputDir, "Stmt", "int line = 0", Arrays.asList(
                 "Expression : Expr expression",
                 "Print      : Expr expression",
-                "Var        : Token name, Expr initializer",
-                "Block      : List<Stmt> statements",
+                "Var        : Token name, Expr initializer : int slot = -1, boolean reassigned = false",
+                "Block      : List<Stmt> statements : int frameSize = 0",
                 "If         : Expr condition, Stmt thenStmt, Stmt elseStmt",
                 "While      : Expr condition, Stmt loop",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body : int slot = -1, int frameSize = 0, boolean isMethod = false, int callCount = 0, LoxFunction.Body compiled = null, Memo memo = null",
                 "ReturnStmt : Token keyword, Expr expr",
-                "ClassStmt  : Token name, Expr.Var superclass, List<Stmt.Function> methods"
+                "ClassStmt  : Token name, Expr.Var superclass, List<Stmt.Function> methods : int slot = -1"
         ));
     }
 
     private static void defineAst(
-            String outputDir, String baseName, List<String> types
+            String outputDir, String baseName, String baseFields, List<String> types
     )throws IOException{
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8);
@@ -52,19 +53,30 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("public abstract class " + baseName + " {");
 
        defineVisitor(writer, baseName, types);
 
        // The AST Classes
        for(String type: types){
-           String className = type.split(":")[0].trim();
-           String fields = type.split(":")[1].trim();
-           defineType(writer, baseName, className, fields);
+           String[] parts = type.split(":");
+           String className = parts[0].trim();
+           String fields = parts[1].trim();
+           // optional third section holds mutable data filled in by the resolver
+           String resolvedFields = parts.length > 2 ? parts[2].trim() : null;
+           defineType(writer, baseName, className, fields, resolvedFields);
+       }
+
+       // mutable data every node of the base type has
+       if(baseFields != null){
+           writer.println();
+           for(String field: baseFields.split(", ")){
+               writer.println("   " + field + ";");
+           }
        }
 
        writer.println();
-       writer.println("   abstract <R> R accept(Visitor<R> visitor);");
+       writer.println("   public abstract <R> R accept(Visitor<R> visitor);");
 
         writer.println("}");
         writer.close();
@@ -72,9 +84,9 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList
+            String className, String fieldList, String resolvedFieldList
     ) {
-        writer.println(" static class " + className + " extends " +
+        writer.println(" public static class " + className + " extends " +
                 baseName + " {");
 
         // Constructor
@@ -91,7 +103,7 @@ public class GenerateAst {
         // Visitor patter
         writer.println();
         writer.println("    @Override");
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
+        writer.println("    public <R> R accept(Visitor<R> visitor) {");
         writer.println("     return visitor.visit" +
                 className + baseName + "(this);");
         writer.println("    }");
@@ -99,7 +111,12 @@ public class GenerateAst {
         // Fields
         writer.println();
         for (String field :fields){
-            writer.println("    final " + field + ";");
+            writer.println("    public final " + field + ";");
+        }
+        if (resolvedFieldList != null) {
+            for (String field : resolvedFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
         }
         writer.println("   }");
     }
@@ -107,7 +124,7 @@ public class GenerateAst {
     private static void defineVisitor(
             PrintWriter writer, String baseName, List<String> types
     ) {
-        writer.println(" interface Visitor<R> {");
+        writer.println(" public interface Visitor<R> {");
         for (String type: types){
             String typeName = type.split(":")[0].trim();
             writer.println("    R visit" + typeName + baseName +"(" + typeName + " " +baseName.toLowerCase() +");");
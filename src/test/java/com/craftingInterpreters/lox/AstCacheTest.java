@@ -0,0 +1,108 @@
+package com.craftingInterpreters.lox;
+// resolved programs written to the cache have to come back as programs that run the same, and
+// an entry that is stale or damaged has to be a miss rather than an error or the wrong program
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AstCacheTest {
+    private static final String SMALL = "class A{ init(x){ this.x = x; } } fun f(a){ var b = a.x; return b + 1; } print f(A(1));";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void corpusRoundTrips(){
+        for(Path script: Corpus.scripts()){
+            String source = Corpus.source(script);
+            Corpus.Run original = new Corpus.Run();
+            List<Stmt> statements = original.resolve(source);
+            byte[] bytes = new AstWriter().write(statements, AstCache.VERSION);
+            String expected = original.execute(statements);
+
+            List<Stmt> read = new AstReader(ByteBuffer.wrap(bytes)).read(AstCache.VERSION);
+            assertNotNull(read, script.toString());
+            // written again the tree gives the same bytes, resolver results included
+            assertArrayEquals(bytes, new AstWriter().write(read, AstCache.VERSION), script.toString());
+            assertEquals(expected, new Corpus.Run().execute(read), script.toString());
+        }
+    }
+
+    @Test
+    void storedEntryLoads(){
+        AstCache cache = new AstCache(directory);
+        Path entry = cache.entry(utf8(SMALL));
+        Corpus.Run run = new Corpus.Run();
+        cache.store(entry, run.resolve(SMALL));
+        List<Stmt> loaded = cache.load(entry);
+        assertNotNull(loaded);
+        assertEquals("2\n", new Corpus.Run().execute(loaded));
+    }
+
+    @Test
+    void entryDependsOnSource(){
+        AstCache cache = new AstCache(directory);
+        assertEquals(cache.entry(utf8(SMALL)), cache.entry(utf8(SMALL)));
+        assertNotEquals(cache.entry(utf8(SMALL)), cache.entry(utf8(SMALL + " ")));
+    }
+
+    @Test
+    void staleEntryMisses() throws IOException {
+        AstCache cache = new AstCache(directory);
+        Path entry = cache.entry(utf8(SMALL));
+        Files.write(entry, new AstWriter().write(new Corpus.Run().resolve(SMALL), "jlox-ast-0"));
+        assertNull(cache.load(entry));
+    }
+
+    @Test
+    void missingEntryMisses(){
+        AstCache cache = new AstCache(directory);
+        assertNull(cache.load(cache.entry(utf8(SMALL))));
+    }
+
+    @Test
+    void damagedEntryMisses() throws IOException {
+        AstCache cache = new AstCache(directory);
+        Path entry = cache.entry(utf8(SMALL));
+        byte[] bytes = new AstWriter().write(new Corpus.Run().resolve(SMALL), AstCache.VERSION);
+
+        // every single flipped bit, in the header, the tree or the checksum
+        for(int i = 0; i < bytes.length; i++){
+            for(int bit = 0; bit < 8; bit++){
+                byte[] damaged = bytes.clone();
+                damaged[i] ^= (byte) (1 << bit);
+                Files.write(entry, damaged);
+                assertNull(cache.load(entry), "byte " + i + " bit " + bit);
+            }
+        }
+        // cut short anywhere, an empty file included
+        for(int length = 0; length < bytes.length; length++){
+            Files.write(entry, Arrays.copyOf(bytes, length));
+            assertNull(cache.load(entry), "length " + length);
+        }
+        // something else entirely
+        Files.write(entry, "not a cached program".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.load(entry));
+
+        Files.write(entry, bytes);
+        assertNotNull(cache.load(entry));
+    }
+
+    private static ByteBuffer utf8(String source){
+        return ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,29 @@
+package com.craftingInterpreters.lox;
+// every backend has to print what the tree walker prints, with hot functions compiled by the
+// jit or not
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BackendTest {
+    private static String run(String source, LoxEngine.Backend backend, boolean jit){
+        Corpus.Run run = new Corpus.Run(new LoxEngine().backend(backend).jit(jit));
+        return run.execute(run.resolve(source));
+    }
+
+    @Test
+    void corpusPrintsTheSameOnEveryBackend(){
+        for(Path script: Corpus.scripts()){
+            String source = Corpus.source(script);
+            String expected = run(source, LoxEngine.Backend.TREE, false);
+            for(LoxEngine.Backend backend: LoxEngine.Backend.values()){
+                for(boolean jit: new boolean[]{false, true}){
+                    assertEquals(expected, run(source, backend, jit), script + " on " + backend + (jit ? " with the jit" : ""));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.craftingInterpreters.lox;
+// calls deeper than --max-depth fail with a lox stack overflow on every backend, never with the
+// jvm's, and tail calls on the vm reuse their frame so they can go as deep as they like
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallDepthTest {
+    private static final String DOWN = """
+            fun down(n){ if(n == 0) return 0; return 1 + down(n - 1); }
+            print down(100000);
+            """;
+
+    private static String run(String source, LoxEngine engine){
+        Corpus.Run run = new Corpus.Run(engine);
+        return run.execute(run.resolve(source));
+    }
+
+    @Test
+    void tailCallsOnTheVmRunInConstantSpace(){
+        // far more calls than frames, each in tail position
+        String[] tail = {
+                "fun loop(n, steps){ if(n == 0) return steps; return loop(n - 1, steps + 1); } print loop(100000, 0);",
+                """
+                fun even(n){ if(n == 0) return true; return odd(n - 1); }
+                fun odd(n){ if(n == 0) return false; return even(n - 1); }
+                print even(100001);
+                """,
+                """
+                class Counter{ count(n, steps){ if(n == 0) return steps; return this.count(n - 1, steps + 1); } }
+                print Counter().count(100000, 0);
+                """,
+        };
+        String[] expected = {"100000\n", "false\n", "100000\n"};
+        for(int i = 0; i < tail.length; i++){
+            assertEquals(expected[i], run(tail[i], new LoxEngine().backend(LoxEngine.Backend.VM).maxDepth(50)), tail[i]);
+        }
+    }
+
+    @Test
+    void deepRecursionIsALoxStackOverflow(){
+        for(LoxEngine.Backend backend: LoxEngine.Backend.values()){
+            for(boolean jit: new boolean[]{false, true}){
+                String output = run(DOWN, new LoxEngine().backend(backend).jit(jit));
+                assertEquals("Stack overflow\n[line 1]\n", output, backend + (jit ? " with the jit" : ""));
+            }
+        }
+    }
+
+    @Test
+    void jvmStackRunningOutIsALoxStackOverflow(){
+        // with no lox limit the jvm's stack runs out first on the backends that recurse on it.
+        // the vm keeps its frames in an array, it would just grow it
+        String deeper = DOWN.replace("100000", "10000000");
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            Corpus.Run run = new Corpus.Run(new LoxEngine().backend(backend).maxDepth(Integer.MAX_VALUE));
+            String output = run.execute(run.resolve(deeper));
+            assertTrue(output.startsWith("Stack overflow\n"), backend + ": " + output);
+            // and the context runs on afterwards
+            assertEquals(output + "3\n", run.execute(run.resolve("print 1 + 2;")), backend.name());
+        }
+    }
+}
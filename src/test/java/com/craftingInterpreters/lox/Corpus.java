@@ -0,0 +1,65 @@
+package com.craftingInterpreters.lox;
+// the benchmark programs, whole scripts that exercise every part of the language, and a context
+// that collects what a run prints so two ways of running one can be compared
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+final class Corpus {
+    private Corpus(){}
+
+    // gradle runs tests from the project directory
+    static List<Path> scripts(){
+        try(Stream<Path> files = Files.list(Path.of("benchmark"))){
+            return files.filter(path -> path.toString().endsWith(".lox")).sorted().toList();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    static String source(Path script){
+        try {
+            return Files.readString(script);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    // a context whose output and errors both go to what output() returns
+    static final class Run {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final LoxContext context;
+
+        Run(LoxEngine engine){
+            PrintStream stream = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+            context = engine.newContext(stream, stream);
+        }
+
+        Run(){
+            this(new LoxEngine());
+        }
+
+        // the resolved program, the source must have no errors
+        List<Stmt> resolve(String source){
+            List<Stmt> statements = context.frontEnd(new Scanner(source, context));
+            if(statements == null) throw new IllegalStateException("Doesn't compile: " + output());
+            return statements;
+        }
+
+        String execute(List<Stmt> statements){
+            context.execute(statements);
+            return output();
+        }
+
+        String output(){
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.craftingInterpreters.lox;
+// fibers and channels, and that spawning only turns on locking in the context that spawned
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FiberTest {
+    private static final String PRODUCER = """
+            var ch = channel(2);
+            fun produce(){
+              for(var i = 1; i <= 100; i = i + 1) send(ch, i);
+              close(ch);
+            }
+            var fiber = spawn(produce);
+            var sum = 0;
+            var value = receive(ch);
+            while(value != nil){
+              sum = sum + value;
+              value = receive(ch);
+            }
+            join(fiber);
+            print sum;
+            """;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private LoxContext context(LoxEngine engine){
+        return engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8), System.err);
+    }
+
+    @Test
+    void channelCarriesValuesBetweenFibers(){
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            out.reset();
+            assertEquals(LoxContext.Result.OK, context(new LoxEngine().backend(backend)).run(PRODUCER));
+            assertEquals("5050\n", out.toString(StandardCharsets.UTF_8), backend.name());
+        }
+    }
+
+    @Test
+    void spawningLocksOnlyItsOwnContext(){
+        LoxEngine engine = new LoxEngine();
+        LoxContext spawning = context(engine);
+        LoxContext quiet = context(engine);
+        quiet.run("var x = 1;");
+        spawning.run(PRODUCER);
+        assertTrue(spawning.interpreter.globals.shared);
+        assertFalse(quiet.interpreter.globals.shared);
+    }
+
+    @Test
+    void failedFiberFailsJoin(){
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context = new LoxEngine().newContext(new PrintStream(out), new PrintStream(err, true, StandardCharsets.UTF_8));
+        LoxContext.Result result = context.run("fun bad(){ return nope; } join(spawn(bad));");
+        assertEquals(LoxContext.Result.RUNTIME_ERROR, result);
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("Joined fiber failed"));
+    }
+}
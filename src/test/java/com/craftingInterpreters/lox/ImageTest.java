@@ -0,0 +1,118 @@
+package com.craftingInterpreters.lox;
+// an image has to give back the globals its prelude left, closures, classes, instances and
+// cycles included, and a loaded image written again has to be the same image
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImageTest {
+    private static final String PRELUDE = """
+            class Point{
+              init(x, y){ this.x = x; this.y = y; }
+              sum(){ return this.x + this.y; }
+            }
+            class Scaled < Point{
+              sum(){ return super.sum() * 10; }
+            }
+            fun counter(){
+              var count = 0;
+              fun next(){ count = count + 1; return count; }
+              return next;
+            }
+            var next = counter();
+            next();
+            var point = Scaled(1, 2);
+            point.self = point;
+            var sum = point.sum;
+            var name = "prelude";
+            var timer = clock;
+            """;
+    private static final String MAIN = """
+            print next(); print next();
+            print sum(); print point.self.self.x;
+            print Point(3, 4).sum();
+            print name; print timer == clock;
+            """;
+
+    // runs a prelude the way --prelude does and writes the image of what it left
+    private static byte[] image(Corpus.Run run, String source){
+        List<Stmt> program = run.context.prepare(run.resolve(source));
+        run.context.interpret(program);
+        return new ImageWriter().write(run.context.interpreter, program);
+    }
+
+    private static ImageReader load(byte[] image, Corpus.Run run, LoxEngine.Backend backend){
+        Interpreter interpreter = run.context.interpreter;
+        Function<Stmt.Function, LoxFunction.Body> compile = backend == LoxEngine.Backend.CLOSURE
+                ? new ClosureCompiler(interpreter)::compileBody
+                : LoxFunction::treeBody;
+        ImageReader reader = new ImageReader(ByteBuffer.wrap(image), interpreter, compile);
+        reader.load();
+        return reader;
+    }
+
+    @Test
+    void loadedImageRunsLikeThePrelude(){
+        Corpus.Run original = new Corpus.Run();
+        byte[] image = image(original, PRELUDE);
+        String expected = original.execute(original.resolve(MAIN));
+        assertEquals("2\n3\n30\n1\n7\nprelude\ntrue\n", expected);
+
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            Corpus.Run loaded = new Corpus.Run(new LoxEngine().backend(backend));
+            load(image, loaded, backend);
+            assertEquals(expected, loaded.execute(loaded.resolve(MAIN)), backend.name());
+        }
+    }
+
+    @Test
+    void corpusImagesRoundTrip(){
+        for(Path script: Corpus.scripts()){
+            String source = Corpus.source(script);
+            byte[] image = image(new Corpus.Run(), source);
+
+            Corpus.Run loaded = new Corpus.Run();
+            ImageReader reader = load(image, loaded, LoxEngine.Backend.TREE);
+            assertArrayEquals(image, new ImageWriter().write(loaded.context.interpreter, reader.program), script.toString());
+        }
+    }
+
+    @Test
+    void loadedPureFunctionsAreMemoized(){
+        byte[] image = image(new Corpus.Run(), "fun sq(n){ return n * n; }");
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            Corpus.Run loaded = new Corpus.Run(new LoxEngine().backend(backend));
+            // as Lox does after loading an image
+            loaded.context.memoize(load(image, loaded, backend).program);
+            assertEquals("9\n9\n", loaded.execute(loaded.resolve("print sq(3); print sq(3);")), backend.name());
+            assertEquals(1, loaded.context.memos.size(), backend.name());
+            assertEquals("memo sq: 1 hits, 1 misses, 0 evictions", loaded.context.memos.get(0).toString(), backend.name());
+        }
+    }
+
+    @Test
+    void staleOrDamagedImageIsRejected(){
+        byte[] image = image(new Corpus.Run(), PRELUDE);
+
+        byte[] damaged = image.clone();
+        damaged[damaged.length / 2] ^= 1;
+        assertThrows(IllegalStateException.class, () -> load(damaged, new Corpus.Run(), LoxEngine.Backend.TREE));
+
+        // Lox reports any RuntimeException from loading as an image it can't load
+        byte[] truncated = Arrays.copyOf(image, 12);
+        assertThrows(RuntimeException.class, () -> load(truncated, new Corpus.Run(), LoxEngine.Backend.TREE));
+
+        AstWriter stale = new AstWriter();
+        stale.header(ImageWriter.MAGIC, AstCache.VERSION + "/image-1");
+        assertThrows(IllegalStateException.class, () -> load(stale.toBytes(), new Corpus.Run(), LoxEngine.Backend.TREE));
+    }
+}
@@ -0,0 +1,105 @@
+package com.craftingInterpreters.lox;
+// a function the jit compiled has to give what it gave interpreted, on either backend that
+// runs the jit, before and after it crosses the threshold, errors included
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JitTest {
+    // every call prints, so the calls on both sides of the threshold are compared
+    private static final String HOT = """
+            fun arith(n){
+              var x = n * 2 - 1;
+              if(x > 100 and x < 200) return x / 2;
+              return x + n;
+            }
+            fun concat(s, n){
+              if(n < %1$d) return s + "x";
+              return s;
+            }
+            fun counter(){
+              var count = 0;
+              fun next(){ count = count + 1; return count; }
+              return next;
+            }
+            class Shape{
+              init(side){ this.side = side; }
+              area(){ return this.side * this.side; }
+            }
+            class Square < Shape{
+              area(){ return super.area() + 1; }
+            }
+            fun shapes(n){
+              var square = Square(n);
+              square.side = square.side + 1;
+              return square.area();
+            }
+            fun logic(n){
+              return (n == nil or n != n) and "never" or n == 3;
+            }
+            var next = counter();
+            for(var i = 0; i < %2$d; i = i + 1){
+              print arith(i);
+              print concat("a", i);
+              print next();
+              print shapes(i);
+              print logic(i);
+            }
+            """.formatted(Jit.THRESHOLD, Jit.THRESHOLD * 3);
+
+    private static final String FAILS = """
+            fun add(a, b){ return a + b; }
+            for(var i = 0; i < %d; i = i + 1) add(i, i);
+            print add(1, 2);
+            print add("a", 1);
+            """.formatted(Jit.THRESHOLD * 2);
+
+    // the optimizer and memos are off, so the declarations run are the ones resolved and every
+    // call reaches the function
+    private static Corpus.Run run(String source, LoxEngine.Backend backend, boolean jit, List<Stmt> statements){
+        Corpus.Run run = new Corpus.Run(new LoxEngine().backend(backend).jit(jit)
+                .optimizations(EnumSet.noneOf(Optimizer.Pass.class)).memoSize(0));
+        statements.addAll(run.resolve(source));
+        run.execute(statements);
+        return run;
+    }
+
+    @Test
+    void compiledFunctionsGiveWhatTheyGaveInterpreted(){
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            String interpreted = run(HOT, backend, false, new ArrayList<>()).output();
+            List<Stmt> statements = new ArrayList<>();
+            String compiled = run(HOT, backend, true, statements).output();
+            assertEquals(interpreted, compiled, backend.name());
+
+            // the functions and methods called past the threshold did get compiled
+            List<Stmt.Function> hot = new ArrayList<>();
+            for(Stmt stmt: statements){
+                if(stmt instanceof Stmt.Function function && !function.name.lexeme().equals("counter")) hot.add(function);
+                if(stmt instanceof Stmt.ClassStmt loxClass) hot.addAll(loxClass.methods);
+            }
+            assertEquals(7, hot.size());
+            for(Stmt.Function function: hot){
+                assertNotNull(function.compiled, backend + ": " + function.name.lexeme());
+            }
+        }
+    }
+
+    @Test
+    void compiledFunctionsFailLikeInterpreted(){
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            String interpreted = run(FAILS, backend, false, new ArrayList<>()).output();
+            assertTrue(interpreted.startsWith("3\n") && interpreted.contains("[line 1]"), interpreted);
+            List<Stmt> statements = new ArrayList<>();
+            assertEquals(interpreted, run(FAILS, backend, true, statements).output(), backend.name());
+            assertNotNull(((Stmt.Function) statements.get(0)).compiled, backend.name());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.craftingInterpreters.lox;
+// memo tables have to give the same output as running without them, even when the globals
+// a pure function depends on change between runs of one context
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoTest {
+    // runs each source in turn in one context, like lines typed into the repl
+    private static String run(int memoSize, String... sources){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context = new LoxEngine().memoSize(memoSize)
+                .newContext(new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8));
+        for(String source: sources){
+            assertEquals(LoxContext.Result.OK, context.run(source), err.toString(StandardCharsets.UTF_8));
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void calleeRedefinedBeforeFirstCall(){
+        String[] runs = {
+                "fun g(n){ return n; } fun f(n){ return g(n); }",
+                "fun g(n){ print \"side\"; return n; }",
+                "f(1); f(1);"
+        };
+        assertEquals("side\nside\n", run(1024, runs));
+        assertEquals(run(0, runs), run(1024, runs));
+    }
+
+    @Test
+    void calleeRedefinedAfterFirstCall(){
+        String[] runs = {
+                "fun g(n){ return n; } fun f(n){ return g(n); }",
+                "print f(1);",
+                "fun g(n){ print \"side\"; return n + 1; }",
+                "print f(1); print f(1);"
+        };
+        assertEquals("1\nside\n2\nside\n2\n", run(1024, runs));
+    }
+
+    @Test
+    void pureFunctionIsCached(){
+        LoxContext context = new LoxEngine().newContext(new PrintStream(new ByteArrayOutputStream()), System.err);
+        context.run("fun sq(n){ return n * n; } sq(3); sq(3); sq(3);");
+        assertEquals(1, context.memos.size());
+        assertEquals("memo sq: 2 hits, 1 misses, 0 evictions", context.memos.get(0).toString());
+    }
+
+    @Test
+    void redefinedFunctionsDropTheirMemos(){
+        LoxContext context = new LoxEngine().newContext(new PrintStream(new ByteArrayOutputStream()), System.err);
+        // a run's memos are made before it replaces the old function, so that one goes a run later
+        for(int i = 0; i < 100; i++){
+            assertEquals(LoxContext.Result.OK, context.run("fun sq(n){ return n * n + " + i + "; } sq(3); sq(3);"));
+            assertTrue(context.memos.size() <= 2, "run " + i + " kept " + context.memos.size());
+        }
+        // a function that is still there keeps its memo
+        context.run("fun cube(n){ return n * n * n; } cube(2);");
+        context.run("cube(2);");
+        assertEquals(1, context.memos.size());
+        assertEquals("memo cube: 1 hits, 1 misses, 0 evictions", context.memos.get(0).toString());
+    }
+}
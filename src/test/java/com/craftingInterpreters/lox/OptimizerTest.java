@@ -0,0 +1,184 @@
+package com.craftingInterpreters.lox;
+// the optimizer may only change how fast a program runs. every program prints the same with all
+// passes as with none, operations that fail at runtime are left to fail, and a node it rebuilds
+// keeps what the resolver and the caches put on the one it replaces
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OptimizerTest {
+    private static final EnumSet<Optimizer.Pass> NONE = EnumSet.noneOf(Optimizer.Pass.class);
+    private static final EnumSet<Optimizer.Pass> ALL = EnumSet.allOf(Optimizer.Pass.class);
+
+    // a local class, a method, a block and property access, each with something in it to fold
+    private static final String REBUILT = """
+            fun outer(){
+              class Box{
+                fill(p){
+                  var box = p or (1 + 2);
+                  box.size = clock() * 0 + (2 * 2);
+                  return box.size;
+                }
+              }
+              {
+                var count = clock() * 0;
+                count = count + (1 + 1);
+                print count;
+              }
+              return Box;
+            }
+            var Box = outer();
+            var box = Box();
+            print box.fill(box);
+            """;
+
+    private static String run(String source, EnumSet<Optimizer.Pass> passes, LoxEngine.Backend backend){
+        Corpus.Run run = new Corpus.Run(new LoxEngine().optimizations(passes).backend(backend).memoSize(0));
+        return run.execute(run.resolve(source));
+    }
+
+    private static void assertSameOutput(String source){
+        for(LoxEngine.Backend backend: new LoxEngine.Backend[]{LoxEngine.Backend.TREE, LoxEngine.Backend.CLOSURE}){
+            assertEquals(run(source, NONE, backend), run(source, ALL, backend), backend.name() + ": " + source);
+        }
+    }
+
+    // the expression of the program's only print statement, once optimized
+    private static Expr printed(String source){
+        List<Stmt> optimized = new Optimizer(ALL).optimize(new Corpus.Run().resolve(source));
+        return ((Stmt.Print) optimized.get(0)).expression;
+    }
+
+    @Test
+    void corpusPrintsTheSameOptimized(){
+        for(Path script: Corpus.scripts()){
+            String source = Corpus.source(script);
+            assertEquals(run(source, NONE, LoxEngine.Backend.TREE), run(source, ALL, LoxEngine.Backend.TREE), script.toString());
+        }
+        assertSameOutput(REBUILT);
+    }
+
+    @Test
+    void failingOperationsAreNotFolded(){
+        String[] failing = {
+                "print \"a\" + 1;",
+                "print 1 + \"a\";",
+                "print 1 - nil;",
+                "print \"a\" < \"b\";",
+                "print nil > 1;",
+                "print true <= false;",
+                "print \"a\" * 2;",
+        };
+        for(String source: failing){
+            assertInstanceOf(Expr.Binary.class, printed(source), source);
+            assertSameOutput(source);
+            assertTrue(run(source, ALL, LoxEngine.Backend.TREE).contains("[line 1]"), source);
+        }
+        assertInstanceOf(Expr.Unary.class, printed("print -\"a\";"));
+        assertSameOutput("print -\"a\";");
+    }
+
+    @Test
+    void divisionByZeroFoldsToWhatItRunsTo(){
+        // numbers are doubles, dividing by zero is no error and folding gives the same value
+        String source = "print 1 / 0; print -1 / 0; print 0 / 0; print 0 / 0 == 0 / 0; print 1 / (1 - 1) > 1;";
+        assertEquals("Infinity\n-Infinity\nNaN\n", run("print 1 / 0; print -1 / 0; print 0 / 0;", NONE, LoxEngine.Backend.TREE));
+        assertSameOutput(source);
+        assertInstanceOf(Expr.Literal.class, printed("print 1 / 0;"));
+    }
+
+    @Test
+    void rebuiltNodesKeepResolverAndCacheFields(){
+        List<Stmt> original = new Corpus.Run().resolve(REBUILT);
+        List<Stmt> optimized = new Optimizer(ALL).optimize(original);
+
+        Stmt.Function outer = (Stmt.Function) original.get(0);
+        Stmt.Function newOuter = (Stmt.Function) optimized.get(0);
+        assertNotSame(outer, newOuter);
+        assertFunction(outer, newOuter);
+
+        Stmt.ClassStmt box = (Stmt.ClassStmt) outer.body.get(0);
+        Stmt.ClassStmt newBox = (Stmt.ClassStmt) newOuter.body.get(0);
+        assertNotSame(box, newBox);
+        assertTrue(box.slot != -1);
+        assertEquals(box.slot, newBox.slot);
+        assertEquals(box.line, newBox.line);
+
+        Stmt.Function fill = box.methods.get(0);
+        Stmt.Function newFill = newBox.methods.get(0);
+        assertNotSame(fill, newFill);
+        assertFunction(fill, newFill);
+        assertTrue(newFill.isMethod);
+
+        // var box = p or (1 + 2);
+        Stmt.Var var = (Stmt.Var) fill.body.get(0);
+        Stmt.Var newVar = (Stmt.Var) newFill.body.get(0);
+        assertNotSame(var, newVar);
+        assertEquals(var.slot, newVar.slot);
+        assertEquals(var.reassigned, newVar.reassigned);
+        assertEquals(var.line, newVar.line);
+
+        // box.size = clock() * 0 + (2 * 2);
+        Expr.SetExpression set = (Expr.SetExpression) ((Stmt.Expression) fill.body.get(1)).expression;
+        Expr.SetExpression newSet = (Expr.SetExpression) ((Stmt.Expression) newFill.body.get(1)).expression;
+        assertNotSame(set, newSet);
+        assertSame(set.cache, newSet.cache);
+        assertRead((Expr.Var) set.object, (Expr.Var) newSet.object, newVar);
+        assertEquals(fill.body.get(1).line, newFill.body.get(1).line);
+
+        // return box.size;
+        Stmt.ReturnStmt ret = (Stmt.ReturnStmt) fill.body.get(2);
+        Stmt.ReturnStmt newRet = (Stmt.ReturnStmt) newFill.body.get(2);
+        Expr.GetExpression get = (Expr.GetExpression) ret.expr;
+        Expr.GetExpression newGet = (Expr.GetExpression) newRet.expr;
+        assertNotSame(get, newGet);
+        assertSame(get.cache, newGet.cache);
+        assertRead((Expr.Var) get.object, (Expr.Var) newGet.object, newVar);
+        assertEquals(ret.line, newRet.line);
+
+        // the block with count in it
+        Stmt.Block block = (Stmt.Block) outer.body.get(1);
+        Stmt.Block newBlock = (Stmt.Block) newOuter.body.get(1);
+        assertNotSame(block, newBlock);
+        assertEquals(block.frameSize, newBlock.frameSize);
+        assertEquals(block.line, newBlock.line);
+        Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) block.statements.get(1)).expression;
+        Expr.Assign newAssign = (Expr.Assign) ((Stmt.Expression) newBlock.statements.get(1)).expression;
+        assertNotSame(assign, newAssign);
+        assertEquals(assign.depth, newAssign.depth);
+        assertEquals(assign.slot, newAssign.slot);
+        assertEquals(block.statements.get(1).line, newBlock.statements.get(1).line);
+    }
+
+    @Test
+    void optimizedTreeWritesAndReadsBack(){
+        // a read of a rebuilt var has to point at a declaration that is in the tree written
+        List<Stmt> optimized = new Optimizer(ALL).optimize(new Corpus.Run().resolve(REBUILT));
+        byte[] bytes = new AstWriter().write(optimized, AstCache.VERSION);
+        List<Stmt> read = new AstReader(ByteBuffer.wrap(bytes)).read(AstCache.VERSION);
+        assertEquals(run(REBUILT, NONE, LoxEngine.Backend.TREE), new Corpus.Run(new LoxEngine().optimizations(NONE)).execute(read));
+    }
+
+    private static void assertFunction(Stmt.Function before, Stmt.Function after){
+        assertEquals(before.slot, after.slot);
+        assertEquals(before.frameSize, after.frameSize);
+        assertEquals(before.isMethod, after.isMethod);
+        assertEquals(before.line, after.line);
+    }
+
+    private static void assertRead(Expr.Var before, Expr.Var after, Stmt.Var declaration){
+        assertEquals(before.depth, after.depth);
+        assertEquals(before.slot, after.slot);
+        assertSame(declaration, after.declaration);
+    }
+}